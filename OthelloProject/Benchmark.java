@@ -0,0 +1,214 @@
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * The operations measured by the JMH benchmarks of the engine hot paths (see benchmarks/): the GameState
+ * operations, the evaluations and fixed depth searches, on a fixed set of positions of a given size.
+ *
+ * JMH does not allow benchmarks in the default package, and classes in the default package cannot be used from
+ * other packages, so the benchmarks create this class by name and only call getAsLong. Each call runs the operation
+ * on the next position and returns a result of it, which the benchmark hands to JMH so the work is not optimized
+ * away. Build and run the benchmarks from the directory above with:
+ *   mvn -B package
+ *   java -jar benchmarks/target/benchmarks.jar [regexp] [-prof gc] [-p operation=GameState.legalMoves]
+ */
+public class Benchmark implements LongSupplier {
+    private static final int POSITIONS = 8;
+    private static final int PRUNE_DEPTH = 7;
+    private static final int AI2_DEPTH = 5;
+
+    private final ArrayList<GameState> positions;
+    private final Operation operation;
+    private int next;
+
+    /**
+     * One operation to measure.
+     */
+    interface Operation {
+        long run(GameState s);
+    }
+
+    /**
+     * @param name The name of the operation, as listed in the benchmarks
+     * @param size The size of the board of the positions
+     * @throws IllegalArgumentException if there is no operation of the given name
+     */
+    public Benchmark(String name, int size) {
+        positions = positions(size);
+        operation = operation(name, size);
+    }
+
+    public long getAsLong() {
+        long result = operation.run(positions.get(next));
+        next = next + 1 == positions.size() ? 0 : next + 1;
+        return result;
+    }
+
+    private Operation operation(String name, int size) {
+        switch (name) {
+            case "GameState.copy":
+                return s -> new GameState(s).getPlayerInTurn();
+            case "GameState.legalMoves":
+                return cold(s -> s.legalMoves().size());
+            case "GameState.insertToken":
+                return s -> {
+                    GameState copy = new GameState(s);
+                    copy.insertToken(s.legalMoves().get(0));
+                    return copy.getPlayerInTurn();
+                };
+            case "GameState.makeUndoMove": {
+                ArrayList<Position> first = firstMoves();
+                return s -> {
+                    Position p = first.get(next);
+                    long undo = s.makeMove(p);
+                    s.undoMove(p, undo);
+                    return undo;
+                };
+            }
+            case "GameState.isFinished":
+                return cold(s -> s.isFinished() ? 1 : 0);
+            case "GameState.node":
+                return node();
+
+            case "OthelloAIPrune.cutOffEvalScan": {
+                OthelloAIPrune eval = new OthelloAIPrune(0);
+                eval.definingWeights(positions.get(0));
+                return eval::cutOffEval;
+            }
+            case "OthelloAIPrune.cutOffEval": {
+                // Searches evaluate states that keep the weighted score up to date
+                OthelloAIPrune eval = new OthelloAIPrune(0);
+                eval.definingWeights(positions.get(0));
+                for (GameState s : positions)
+                    s.setWeights(eval.weights);
+                return eval::cutOffEval;
+            }
+            case "PatternEval.evaluate":
+                return PatternEval.getDefault()::evaluate;
+
+            case "OthelloAIPrune.search": {
+                // The table is cleared before each search, so no results are reused from an earlier search
+                TranspositionTable table = new TranspositionTable(16);
+                OthelloAIPrune prune = new OthelloAIPrune(0, table);
+                prune.definingWeights(positions.get(0));
+                return s -> {
+                    table.clear();
+                    prune.iterate(s, s.legalMoves(), Deadline.none(), 1, PRUNE_DEPTH);
+                    return prune.getNodes();
+                };
+            }
+            case "OthelloAI2.search": {
+                OthelloAI2 ai2 = new OthelloAI2();
+                ai2.definingWeights(positions.get(0));
+                return s -> {
+                    GameState state = new GameState(s);
+                    state.setWeights(ai2.weights);
+                    long sum = 0;
+                    for (Position p : s.legalMoves()) {
+                        long undo = state.makeMove(p);
+                        sum += ai2.min(state, 0, size * size, AI2_DEPTH - 1);
+                        state.undoMove(p, undo);
+                    }
+                    return sum;
+                };
+            }
+            case "Playouts.play":
+                return new Playouts(size, false, new SplittableRandom(1))::play;
+
+            // The board loops on large boards, each on a random board of its own in turn (see BoardKernel)
+            case "BoardKernel.weightedSum": {
+                BoardKernel kernel = BoardKernel.get();
+                int[][][] boards = randomBoards(size);
+                int[][] weights = randomBoards(size)[0];
+                return s -> kernel.weightedSum(boards[next], weights);
+            }
+            case "BoardKernel.countTokens": {
+                BoardKernel kernel = BoardKernel.get();
+                int[][][] boards = randomBoards(size);
+                return s -> kernel.countTokens(boards[next])[0];
+            }
+            case "BoardKernel.weightedSums": {
+                // A batch of all boards in one operation
+                BoardKernel kernel = BoardKernel.get();
+                int[][][] boards = randomBoards(size);
+                int[][] weights = randomBoards(size)[0];
+                int[] scores = new int[POSITIONS];
+                return s -> {
+                    kernel.weightedSums(boards, POSITIONS, weights, scores);
+                    return scores[0];
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Unknown benchmark: " + name);
+        }
+    }
+
+    // Runs the operation after making the first legal move of the position and taking it back. The state keeps the
+    // moves it has found until the board changes (see GameState), so without this the operation would only read
+    // them after the first call. The time of the move and its undo is measured by GameState.makeUndoMove.
+    private Operation cold(Operation operation) {
+        ArrayList<Position> first = firstMoves();
+        return s -> {
+            Position p = first.get(next);
+            s.undoMove(p, s.makeMove(p));
+            return operation.run(s);
+        };
+    }
+
+    // Makes the first legal move of a position, asks whether the game is finished and for the moves after it, and
+    // takes the move back. The moves of the positions themselves are found beforehand, as a search has them already.
+    private Operation node() {
+        ArrayList<Position> first = firstMoves();
+        return s -> {
+            Position p = first.get(next);
+            long undo = s.makeMove(p);
+            int moves = s.isFinished() ? 0 : s.legalMoves().size();
+            s.undoMove(p, undo);
+            return moves;
+        };
+    }
+
+    // The first legal move of each position
+    private ArrayList<Position> firstMoves() {
+        ArrayList<Position> first = new ArrayList<>();
+        for (GameState s : positions)
+            first.add(s.legalMoves().get(0));
+        return first;
+    }
+
+    // Boards with random places of black and white, one for each position
+    private static int[][][] randomBoards(int size) {
+        Random random = new Random(size);
+        int[][][] boards = new int[POSITIONS][size][size];
+        for (int[][] board : boards) {
+            for (int[] row : board) {
+                for (int j = 0; j < size; j++)
+                    row[j] = random.nextInt(3);
+            }
+        }
+        return boards;
+    }
+
+    // Midgame positions of the given size reached by a fixed sequence of pseudo-random moves, from a sixth to
+    // two thirds of the board full
+    private static ArrayList<GameState> positions(int size) {
+        ArrayList<GameState> positions = new ArrayList<>();
+        Random random = new Random(2018);
+        while (positions.size() < POSITIONS) {
+            GameState s = new GameState(size, 1);
+            int plies = (10 + positions.size() * 5) * size * size / 64;
+            for (int i = 0; i < plies && !s.isFinished(); i++) {
+                ArrayList<Position> moves = s.legalMoves();
+                if (moves.isEmpty())
+                    s.changePlayer();
+                else
+                    s.insertToken(moves.get(random.nextInt(moves.size())));
+            }
+            if (!s.isFinished() && !s.legalMoves().isEmpty())
+                positions.add(s);
+        }
+        return positions;
+    }
+}
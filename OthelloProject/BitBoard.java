@@ -0,0 +1,94 @@
+/**
+ * Bit-parallel move generation and flipping for 8x8 boards. A board is represented by one long
+ * per player, where bit col*8+row is set if the player has a token on (col, row). Scanning the
+ * bits from low to high therefore visits the board in the same column-by-column order as a
+ * double loop over the int[col][row] representation used by GameState.
+ */
+final class BitBoard {
+	static final int SIZE = 8;
+
+	// All squares except those in row 0 and row 7. Used to stop shifts along the row axis
+	// from wrapping from one column into the next.
+	private static final long INNER_ROWS = 0x7E7E7E7E7E7E7E7EL;
+
+	private BitBoard(){
+	}
+
+	/**
+	 * Returns the bit index of the given (col, row) square.
+	 */
+	static int square(int col, int row){
+		return col * SIZE + row;
+	}
+
+	/**
+	 * Returns the set of squares where the player owning p can legally put a token.
+	 * @param p The tokens of the player to move
+	 * @param o The tokens of the opponent
+	 */
+	static long moves(long p, long o){
+		long inner = o & INNER_ROWS;
+		long moves = movesInDirection(p, inner, 1)
+				| movesInDirection(p, o, 8)
+				| movesInDirection(p, inner, 7)
+				| movesInDirection(p, inner, 9);
+		return moves & ~(p | o);
+	}
+
+	/**
+	 * Returns the opponent tokens that are turned if the player owning p puts a token on the
+	 * given square, or 0 if the move is not legal. The square is assumed to be empty.
+	 */
+	static long flips(long p, long o, int square){
+		long m = 1L << square;
+		long inner = o & INNER_ROWS;
+		return flipsInDirection(p, inner, m, 1)
+				| flipsInDirection(p, o, m, 8)
+				| flipsInDirection(p, inner, m, 7)
+				| flipsInDirection(p, inner, m, 9);
+	}
+
+	// Both directions along one line. At most 6 opponent tokens fit between two tokens on an
+	// 8x8 board. After two single steps, each step adds two tokens at once where both are the
+	// opponent's (pairs), so four steps are enough.
+	private static long movesInDirection(long p, long o, int shift){
+		int shift2 = 2 * shift;
+
+		long up = o & (p << shift);
+		up |= o & (up << shift);
+		long pairs = o & (o << shift);
+		up |= pairs & (up << shift2);
+		up |= pairs & (up << shift2);
+
+		long down = o & (p >>> shift);
+		down |= o & (down >>> shift);
+		pairs = o & (o >>> shift);
+		down |= pairs & (down >>> shift2);
+		down |= pairs & (down >>> shift2);
+
+		return (up << shift) | (down >>> shift);
+	}
+
+	private static long flipsInDirection(long p, long o, long m, int shift){
+		int shift2 = 2 * shift;
+		long flipped = 0;
+
+		long up = o & (m << shift);
+		up |= o & (up << shift);
+		long pairs = o & (o << shift);
+		up |= pairs & (up << shift2);
+		up |= pairs & (up << shift2);
+		if ( ((up << shift) & p) != 0 )
+			flipped |= up;
+
+		long down = o & (m >>> shift);
+		down |= o & (down >>> shift);
+		pairs = o & (o >>> shift);
+		down |= pairs & (down >>> shift2);
+		down |= pairs & (down >>> shift2);
+		if ( ((down >>> shift) & p) != 0 )
+			flipped |= down;
+
+		return flipped;
+	}
+}
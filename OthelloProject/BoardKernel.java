@@ -0,0 +1,82 @@
+/**
+ * Loops over whole boards stored as int[][] (0 empty, 1 black, 2 white): weighted sums and token counts, for one
+ * board or a batch of boards. The loops run once per search rather than at every node, since GameState keeps its
+ * counts and weighted score up to date, but on large boards they still cost size*size steps each.
+ *
+ * This class is the scalar version. get() returns the vector version in vector/VectorBoardKernel.java if it was
+ * compiled and the jdk.incubator.vector module is present, which adds up a row in SIMD lanes:
+ *   javac --add-modules jdk.incubator.vector -cp . -d . vector/VectorBoardKernel.java
+ *   java --add-modules jdk.incubator.vector Othello ...
+ * Otherwise, or with -Dothello.vector=false, it returns the scalar version.
+ */
+public class BoardKernel {
+    private static BoardKernel kernel;
+
+    protected BoardKernel() {
+    }
+
+    /**
+     * Returns the vector kernel if it can be used, otherwise the scalar kernel.
+     */
+    public static synchronized BoardKernel get() {
+        if (kernel == null) {
+            kernel = new BoardKernel();
+            if (!"false".equals(System.getProperty("othello.vector"))) {
+                try {
+                    kernel = (BoardKernel) Class.forName("VectorBoardKernel").getConstructor().newInstance();
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    // Not compiled, or the module is not added: keep the scalar kernel
+                }
+            }
+        }
+        return kernel;
+    }
+
+    /**
+     * Returns the sum of the weights of the places of black minus the sum of the weights of the places of white.
+     * @param weights Weights indexed as the board
+     */
+    public int weightedSum(int[][] board, int[][] weights) {
+        int sum = 0;
+        for (int i = 0; i < board.length; i++) {
+            int[] row = board[i];
+            int[] rowWeights = weights[i];
+            for (int j = 0; j < row.length; j++) {
+                int v = row[j];
+                sum += ((v & 1) - (v >> 1)) * rowWeights[j];   // 1 for black, -1 for white, 0 for empty
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the number of tokens of black and of white, in that order.
+     */
+    public int[] countTokens(int[][] board) {
+        int black = 0;
+        int white = 0;
+        for (int[] row : board) {
+            for (int v : row) {
+                black += v & 1;
+                white += v >> 1;
+            }
+        }
+        return new int[]{black, white};
+    }
+
+    /**
+     * Puts the weighted sum (see weightedSum) of each of the first count boards into scores, e.g. for the
+     * positions after each move of a state.
+     */
+    public void weightedSums(int[][][] boards, int count, int[][] weights, int[] scores) {
+        for (int b = 0; b < count; b++)
+            scores[b] = weightedSum(boards[b], weights);
+    }
+
+    /**
+     * Returns a name for the kernel, for reports.
+     */
+    public String name() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * A wall-clock limit for a search. The search calls check() regularly, which throws Expired once the
+ * time is up or stop() has been called, so the search can be abandoned from any depth of the recursion.
+ */
+public class Deadline {
+    private final long end;           // System.nanoTime() at which the time is up
+    private final Deadline parent;    // Expires this one too, or null
+    private volatile boolean stopped; // Set by stop(), possibly from another thread
+
+    /**
+     * Starts a deadline that expires the given number of milliseconds from now.
+     */
+    public Deadline(long millis) {
+        this(millis, null);
+    }
+
+    /**
+     * Starts a deadline that expires the given number of milliseconds from now, or when the given one expires,
+     * e.g. for a part of the search of a move that should stop when the whole search is stopped.
+     */
+    public Deadline(long millis, Deadline parent) {
+        end = System.nanoTime() + millis * 1_000_000L;
+        this.parent = parent;
+    }
+
+    /**
+     * Returns a deadline that only expires when stop() is called.
+     */
+    public static Deadline none() {
+        return new Deadline(Long.MAX_VALUE / 2_000_000);
+    }
+
+    /**
+     * Returns true if the time is up or the search has been stopped.
+     */
+    public boolean expired() {
+        return stopped || System.nanoTime() - end >= 0 || parent != null && parent.expired();
+    }
+
+    /**
+     * Makes the deadline expire now.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Throws Expired if the deadline has expired.
+     */
+    public void check() {
+        if (expired())
+            throw Expired.INSTANCE;
+    }
+
+    /**
+     * Thrown to unwind a search whose deadline has expired. It carries no stack trace, since it is
+     * used for control flow only.
+     */
+    public static final class Expired extends RuntimeException {
+        static final long serialVersionUID = 1L;
+        private static final Expired INSTANCE = new Expired();
+
+        private Expired() {
+            super("Search deadline expired", null, false, false);
+        }
+    }
+}
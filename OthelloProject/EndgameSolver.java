@@ -0,0 +1,507 @@
+import java.util.ArrayList;
+
+/**
+ * Exact solver for the end of the game. It searches every line to the end of the game, where the score is the
+ * number of tokens of the player in turn minus the number of tokens of the opponent.
+ * There are two modes: the exact mode finds the score, while the win/loss/draw mode searches with the null window
+ * (-1, 1), which is much faster but only tells the sign of the score.
+ *
+ * 8x8 boards are solved on bitboards. Moves that leave the opponent the fewest replies are searched first
+ * (fastest first) while many places are empty, and near the end moves in regions (quadrants) with an odd number of
+ * empty places are searched first (parity). The last 4 empty places are solved by dedicated methods that try the
+ * empty places directly instead of generating moves. Other board sizes are solved by a plain alpha-beta search on
+ * GameState, which is only fast enough for fewer empty places.
+ */
+public class EndgameSolver {
+    public static final int MAX_EMPTIES = 18;             // Engines solve 8x8 boards exactly from this many empty places
+    public static final int MAX_EMPTIES_WIN_LOSS_DRAW = 21; // and in win/loss/draw mode from this many
+    public static final int MAX_EMPTIES_OTHER_SIZES = 12;   // Exactly on other sizes
+
+    private static final int FASTEST_FIRST_EMPTIES = 7;   // Fastest first ordering above this many empty places
+    private static final int HASH_EMPTIES = 10;           // Nodes with at least this many empty places use the table
+    private static final int HASH_BITS = 18;
+    private static final int NO_SCORE = -100;             // Below any score on 8x8 boards
+    private static final int MAX_MOVES = 64;
+
+    private static final long[] QUADRANTS = {
+            0x000000000F0F0F0FL, 0x00000000F0F0F0F0L, 0x0F0F0F0F00000000L, 0xF0F0F0F000000000L
+    };
+    private static final long CORNERS = 0x8100000000000081L;
+    private static final long[] NEIGHBOURS = new long[64];  // The squares around each square
+
+    static {
+        for (int col = 0; col < BitBoard.SIZE; col++)
+            for (int row = 0; row < BitBoard.SIZE; row++)
+                for (int dc = -1; dc <= 1; dc++)
+                    for (int dr = -1; dr <= 1; dr++) {
+                        int c = col + dc;
+                        int r = row + dr;
+                        if ((dc != 0 || dr != 0) && c >= 0 && c < BitBoard.SIZE && r >= 0 && r < BitBoard.SIZE)
+                            NEIGHBOURS[BitBoard.square(col, row)] |= 1L << BitBoard.square(c, r);
+                    }
+    }
+
+    private Deadline deadline;
+    private long nodes;
+    private int maxScore;       // The highest score on the board being solved, the number of places
+    private int score;
+    private int rootSquare;
+
+    // Scratch space for the moves of a node and their flips and order, one row per number of empty places
+    private final int[][] squares = new int[65][MAX_MOVES];
+    private final long[][] flips = new long[65][MAX_MOVES];
+    private final int[][] keys = new int[65][MAX_MOVES];
+
+    // Table of solved nodes near the root, identified by both bitboards. Scores in an endgame do not depend on
+    // any search depth, so an entry is the lower and upper bound on the score found so far and the best move.
+    private final long[] hashOwn = new long[1 << HASH_BITS];
+    private final long[] hashOpponent = new long[1 << HASH_BITS];
+    private final byte[] hashLower = new byte[1 << HASH_BITS];
+    private final byte[] hashUpper = new byte[1 << HASH_BITS];
+    private final byte[] hashMove = new byte[1 << HASH_BITS];
+
+    /**
+     * Returns true if the engines should solve the given state rather than search it with a cut-off evaluation.
+     */
+    public static boolean applies(GameState s) {
+        if (s.isBitboard())
+            return s.countEmpty() <= MAX_EMPTIES_WIN_LOSS_DRAW;
+        return s.countEmpty() <= MAX_EMPTIES_OTHER_SIZES;
+    }
+
+    /**
+     * Solves the state with exact play when engines allow it: in exact mode on 8x8 boards with at most MAX_EMPTIES
+     * empty places and on other sizes, and otherwise in win/loss/draw mode. Returns null if the deadline expired
+     * first, or if the win/loss/draw search found only losing moves, so that a heuristic search can choose
+     * the move that makes the loss most likely to be avoided against an imperfect opponent.
+     */
+    public Position solveForEngine(GameState s, Deadline deadline) {
+        boolean exact = solvesExactly(s);
+        Position move = bestMove(s, exact, deadline);
+        if (move == null || (!exact && score < 0))
+            return null;
+        return move;
+    }
+
+    /**
+     * Returns true if solveForEngine finds the exact score of the state, rather than win/loss/draw only.
+     */
+    public static boolean solvesExactly(GameState s) {
+        return !s.isBitboard() || s.countEmpty() <= MAX_EMPTIES;
+    }
+
+    /**
+     * Returns the best move for the player in turn, or null if the deadline expires first.
+     * The score of the move is available from getScore() afterwards.
+     * @param s A state in which the player in turn has a legal move
+     * @param exact true for the exact score, false for win/loss/draw only
+     * @param deadline The deadline of the search
+     */
+    public Position bestMove(GameState s, boolean exact, Deadline deadline) {
+        this.deadline = deadline;
+        nodes = 0;
+        int size = s.getBoard().length;
+        maxScore = size * size;
+        int alpha = exact ? -maxScore : -1;
+        int beta = exact ? maxScore : 1;
+        try {
+            if (s.isBitboard())
+                return bestMoveBitboard(s.own(), s.opponent(), exact);
+            return bestMoveGeneric(new GameState(s), alpha, beta);
+        } catch (Deadline.Expired e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the score of the move returned by the last call of bestMove: the final number of tokens of the player
+     * in turn minus that of the opponent, or in win/loss/draw mode a number with the same sign.
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Returns the number of nodes visited by the last call of bestMove.
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Finds the exact score with a sequence of null window searches that narrow the bounds on it (MTD(f)), which
+     * with the table is faster than one search with the full window.
+     */
+    private Position bestMoveBitboard(long p, long o, boolean exact) {
+        if (!exact) {
+            score = searchRoot(p, o, -1, 1);
+            return new Position(rootSquare / BitBoard.SIZE, rootSquare % BitBoard.SIZE);
+        }
+        int lower = -64;
+        int upper = 64;
+        int guess = 0;
+        int bestSquare = -1;
+        while (lower < upper) {
+            int beta = guess == lower ? guess + 1 : guess;
+            guess = searchRoot(p, o, beta - 1, beta);
+            if (guess >= beta) {
+                lower = guess;
+                bestSquare = rootSquare;
+            } else {
+                upper = guess;
+            }
+        }
+        if (bestSquare < 0) // Every move loses by 64
+            bestSquare = rootSquare;
+        score = lower;
+        return new Position(bestSquare / BitBoard.SIZE, bestSquare % BitBoard.SIZE);
+    }
+
+    // Searches the root and leaves the best move in rootSquare
+    private int searchRoot(long p, long o, int alpha, int beta) {
+        int empties = Long.bitCount(~(p | o));
+        int n = orderMoves(p, o, BitBoard.moves(p, o), empties, probeMove(p, o));
+        int[] square = squares[empties];
+        long[] flip = flips[empties];
+        int best = NO_SCORE;
+        for (int i = 0; i < n; i++) {
+            int v = -search(o & ~flip[i], p | flip[i] | (1L << square[i]), -beta, -Math.max(alpha, best), empties - 1);
+            if (v > best) {
+                best = v;
+                rootSquare = square[i];
+                if (best >= beta)
+                    break;
+            }
+        }
+        return best;
+    }
+
+    private int search(long p, long o, int alpha, int beta, int empties) {
+        if (empties <= 4)
+            return solveLast(p, o, alpha, beta, empties);
+        if ((++nodes & 0xFFFF) == 0)
+            deadline.check();
+
+        long moves = BitBoard.moves(p, o);
+        if (moves == 0) {
+            if (BitBoard.moves(o, p) == 0)
+                return finalScore(p, o);
+            return -search(o, p, -beta, -alpha, empties);
+        }
+
+        int slot = -1;
+        int lower = -64;
+        int upper = 64;
+        int hashedMove = -1;
+        if (empties >= HASH_EMPTIES) {
+            slot = slot(p, o);
+            if (hashOwn[slot] == p && hashOpponent[slot] == o) {
+                lower = hashLower[slot];
+                upper = hashUpper[slot];
+                if (lower >= beta || lower == upper)
+                    return lower;
+                if (upper <= alpha)
+                    return upper;
+                alpha = Math.max(alpha, lower);
+                beta = Math.min(beta, upper);
+                hashedMove = hashMove[slot];
+            }
+        }
+
+        int n = orderMoves(p, o, moves, empties, hashedMove);
+        int[] square = squares[empties];
+        long[] flip = flips[empties];
+        int best = NO_SCORE;
+        int bestSquare = -1;
+        int a = alpha;
+        for (int i = 0; i < n; i++) {
+            int v = searchMove(p, o, square[i], flip[i], a, beta, empties, i == 0);
+            if (v > best) {
+                best = v;
+                bestSquare = square[i];
+                if (v > a) {
+                    a = v;
+                    if (a >= beta)
+                        break;
+                }
+            }
+        }
+
+        if (slot >= 0) {
+            if (hashOwn[slot] != p || hashOpponent[slot] != o) {
+                lower = -64;
+                upper = 64;
+            }
+            if (best > alpha)
+                lower = Math.max(lower, best);
+            if (best < beta)
+                upper = Math.min(upper, best);
+            hashOwn[slot] = p;
+            hashOpponent[slot] = o;
+            hashLower[slot] = (byte) lower;
+            hashUpper[slot] = (byte) upper;
+            hashMove[slot] = (byte) bestSquare;
+        }
+        return best;
+    }
+
+    /**
+     * Returns the score of a move from the view of the player making it. Moves after the first are searched with a
+     * null window first, which is cheaper, and only searched again with the full window if they may be better
+     * (principal variation search).
+     */
+    private int searchMove(long p, long o, int square, long f, int alpha, int beta, int empties, boolean first) {
+        long np = p | f | (1L << square);
+        long no = o & ~f;
+        if (first || beta - alpha == 1)
+            return -search(no, np, -beta, -alpha, empties - 1);
+        int v = -search(no, np, -alpha - 1, -alpha, empties - 1);
+        if (v > alpha && v < beta)
+            v = -search(no, np, -beta, -alpha, empties - 1);
+        return v;
+    }
+
+    private static int slot(long p, long o) {
+        long h = (p * 0x9E3779B97F4A7C15L) ^ (o * 0xC2B2AE3D27D4EB4FL);
+        return (int) (h >>> (64 - HASH_BITS));
+    }
+
+    // The best move stored for the node, or -1
+    private int probeMove(long p, long o) {
+        int slot = slot(p, o);
+        return hashOwn[slot] == p && hashOpponent[slot] == o ? hashMove[slot] : -1;
+    }
+
+    /**
+     * Puts the moves of the node into the scratch row of the given number of empty places, in the order to search
+     * them, and returns the number of moves. The hashed move, if not -1, is searched first.
+     */
+    private int orderMoves(long p, long o, long moves, int empties, int hashedMove) {
+        int[] square = squares[empties];
+        long[] flip = flips[empties];
+        long odd = oddQuadrants(~(p | o));
+        int n = 0;
+
+        if (empties <= FASTEST_FIRST_EMPTIES) {
+            // Parity: moves in odd quadrants first
+            for (long m = moves & odd; m != 0; m &= m - 1)
+                n = addMove(p, o, Long.numberOfTrailingZeros(m), square, flip, n);
+            for (long m = moves & ~odd; m != 0; m &= m - 1)
+                n = addMove(p, o, Long.numberOfTrailingZeros(m), square, flip, n);
+            return n;
+        }
+
+        // Fastest first: fewest replies for the opponent first, corners and odd quadrants break ties
+        int[] key = keys[empties];
+        for (long m = moves; m != 0; m &= m - 1) {
+            int sq = Long.numberOfTrailingZeros(m);
+            long bit = 1L << sq;
+            n = addMove(p, o, sq, square, flip, n);
+            long f = flip[n - 1];
+            int k = Long.bitCount(BitBoard.moves(o & ~f, p | f | bit)) * 4;
+            if ((bit & CORNERS) != 0)
+                k -= 2;
+            if ((bit & odd) != 0)
+                k -= 1;
+            if (sq == hashedMove)
+                k = -1000;
+            key[n - 1] = k;
+        }
+        for (int i = 1; i < n; i++) {
+            int sq = square[i];
+            long f = flip[i];
+            int k = key[i];
+            int j = i - 1;
+            while (j >= 0 && key[j] > k) {
+                square[j + 1] = square[j];
+                flip[j + 1] = flip[j];
+                key[j + 1] = key[j];
+                j--;
+            }
+            square[j + 1] = sq;
+            flip[j + 1] = f;
+            key[j + 1] = k;
+        }
+        return n;
+    }
+
+    private static int addMove(long p, long o, int sq, int[] square, long[] flip, int n) {
+        square[n] = sq;
+        flip[n] = BitBoard.flips(p, o, sq);
+        return n + 1;
+    }
+
+    /**
+     * Solves a node with at most 4 empty places, which are tried in parity order.
+     */
+    private int solveLast(long p, long o, int alpha, int beta, int empties) {
+        nodes++;
+        long empty = ~(p | o);
+        long odd = oddQuadrants(empty);
+        int[] x = squares[empties];
+        int n = 0;
+        for (long e = empty & odd; e != 0; e &= e - 1)
+            x[n++] = Long.numberOfTrailingZeros(e);
+        for (long e = empty & ~odd; e != 0; e &= e - 1)
+            x[n++] = Long.numberOfTrailingZeros(e);
+
+        switch (n) {
+            case 4:
+                return solve4(p, o, alpha, beta, x[0], x[1], x[2], x[3], false);
+            case 3:
+                return solve3(p, o, alpha, beta, x[0], x[1], x[2], false);
+            case 2:
+                return solve2(p, o, alpha, beta, x[0], x[1], false);
+            case 1:
+                return solve1(p, o, x[0]);
+            default:
+                return finalScore(p, o);
+        }
+    }
+
+    private int solve4(long p, long o, int alpha, int beta, int x1, int x2, int x3, int x4, boolean passed) {
+        int best = NO_SCORE;
+        long f;
+        if ((o & NEIGHBOURS[x1]) != 0 && (f = BitBoard.flips(p, o, x1)) != 0) {
+            best = -solve3(o & ~f, p | f | (1L << x1), -beta, -alpha, x2, x3, x4, false);
+            if (best >= beta)
+                return best;
+            alpha = Math.max(alpha, best);
+        }
+        if ((o & NEIGHBOURS[x2]) != 0 && (f = BitBoard.flips(p, o, x2)) != 0) {
+            best = Math.max(best, -solve3(o & ~f, p | f | (1L << x2), -beta, -alpha, x1, x3, x4, false));
+            if (best >= beta)
+                return best;
+            alpha = Math.max(alpha, best);
+        }
+        if ((o & NEIGHBOURS[x3]) != 0 && (f = BitBoard.flips(p, o, x3)) != 0) {
+            best = Math.max(best, -solve3(o & ~f, p | f | (1L << x3), -beta, -alpha, x1, x2, x4, false));
+            if (best >= beta)
+                return best;
+            alpha = Math.max(alpha, best);
+        }
+        if ((o & NEIGHBOURS[x4]) != 0 && (f = BitBoard.flips(p, o, x4)) != 0)
+            best = Math.max(best, -solve3(o & ~f, p | f | (1L << x4), -beta, -alpha, x1, x2, x3, false));
+        if (best == NO_SCORE) // No move, pass
+            return passed ? finalScore(p, o) : -solve4(o, p, -beta, -alpha, x1, x2, x3, x4, true);
+        return best;
+    }
+
+    private int solve3(long p, long o, int alpha, int beta, int x1, int x2, int x3, boolean passed) {
+        int best = NO_SCORE;
+        long f;
+        if ((o & NEIGHBOURS[x1]) != 0 && (f = BitBoard.flips(p, o, x1)) != 0) {
+            best = -solve2(o & ~f, p | f | (1L << x1), -beta, -alpha, x2, x3, false);
+            if (best >= beta)
+                return best;
+            alpha = Math.max(alpha, best);
+        }
+        if ((o & NEIGHBOURS[x2]) != 0 && (f = BitBoard.flips(p, o, x2)) != 0) {
+            best = Math.max(best, -solve2(o & ~f, p | f | (1L << x2), -beta, -alpha, x1, x3, false));
+            if (best >= beta)
+                return best;
+            alpha = Math.max(alpha, best);
+        }
+        if ((o & NEIGHBOURS[x3]) != 0 && (f = BitBoard.flips(p, o, x3)) != 0)
+            best = Math.max(best, -solve2(o & ~f, p | f | (1L << x3), -beta, -alpha, x1, x2, false));
+        if (best == NO_SCORE) // No move, pass
+            return passed ? finalScore(p, o) : -solve3(o, p, -beta, -alpha, x1, x2, x3, true);
+        return best;
+    }
+
+    private int solve2(long p, long o, int alpha, int beta, int x1, int x2, boolean passed) {
+        int best = NO_SCORE;
+        long f;
+        if ((o & NEIGHBOURS[x1]) != 0 && (f = BitBoard.flips(p, o, x1)) != 0) {
+            best = -solve1(o & ~f, p | f | (1L << x1), x2);
+            if (best >= beta)
+                return best;
+        }
+        if ((o & NEIGHBOURS[x2]) != 0 && (f = BitBoard.flips(p, o, x2)) != 0)
+            best = Math.max(best, -solve1(o & ~f, p | f | (1L << x2), x1));
+        if (best == NO_SCORE) // No move, pass
+            return passed ? finalScore(p, o) : -solve2(o, p, -beta, -alpha, x1, x2, true);
+        return best;
+    }
+
+    // The last empty place: whoever can move there does, and the game ends
+    private static int solve1(long p, long o, int x) {
+        int score = Long.bitCount(p) - Long.bitCount(o);
+        long f;
+        if ((o & NEIGHBOURS[x]) != 0 && (f = BitBoard.flips(p, o, x)) != 0)
+            return score + 1 + 2 * Long.bitCount(f);
+        if ((p & NEIGHBOURS[x]) != 0 && (f = BitBoard.flips(o, p, x)) != 0)
+            return score - 1 - 2 * Long.bitCount(f);
+        return score;
+    }
+
+    private static int finalScore(long p, long o) {
+        return Long.bitCount(p) - Long.bitCount(o);
+    }
+
+    private static long oddQuadrants(long empty) {
+        long odd = 0;
+        for (long quadrant : QUADRANTS) {
+            if ((Long.bitCount(empty & quadrant) & 1) != 0)
+                odd |= quadrant;
+        }
+        return odd;
+    }
+
+    //************ Other board sizes ****************//
+
+    private Position bestMoveGeneric(GameState s, int alpha, int beta) {
+        ArrayList<Position> moves = s.legalMoves();
+        Position best = moves.get(0);
+        score = -maxScore - 1;
+        for (Position p : moves) {
+            long undo = s.makeMove(p);
+            int v = -searchGeneric(s, -beta, -Math.max(alpha, score));
+            s.undoMove(p, undo);
+            if (v > score) {
+                score = v;
+                best = p;
+                if (score >= beta)
+                    break;
+            }
+        }
+        return best;
+    }
+
+    private int searchGeneric(GameState s, int alpha, int beta) {
+        if ((++nodes & 0xFFF) == 0)
+            deadline.check();
+        ArrayList<Position> moves = s.legalMoves();
+        if (moves.isEmpty()) {
+            s.changePlayer();
+            int v;
+            if (s.legalMoves().isEmpty())
+                v = -finalScore(s);
+            else
+                v = -searchGeneric(s, -beta, -alpha);
+            s.changePlayer();
+            return v;
+        }
+        int best = -maxScore - 1;
+        for (Position p : moves) {
+            long undo = s.makeMove(p);
+            int v = -searchGeneric(s, -beta, -alpha);
+            s.undoMove(p, undo);
+            if (v > best) {
+                best = v;
+                if (v > alpha) {
+                    alpha = v;
+                    if (alpha >= beta)
+                        break;
+                }
+            }
+        }
+        return best;
+    }
+
+    // The score from the view of the player in turn
+    private static int finalScore(GameState s) {
+        int[] tokens = s.countTokens();
+        return s.getPlayerInTurn() == 1 ? tokens[0] - tokens[1] : tokens[1] - tokens[0];
+    }
+}
@@ -0,0 +1,305 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * File of played games, e.g. of SelfPlay, for tuning and testing the engines. The games are written and read one
+ * at a time, so a file may hold far more games than fit in memory.
+ *
+ * The file starts with a header of 8 bytes: a magic number and the board size. Each game then has a header of 5
+ * bytes, the number of moves (2 bytes), the number of random opening moves among them (1 byte) and the tokens of
+ * black minus those of white at the end (2 bytes), followed by the moves, as col*size+row in one byte for boards up
+ * to 16x16 and in two bytes for larger boards. Every game starts from the start position with black in turn. Passes
+ * are not stored, since a player passes exactly when it has no legal move.
+ */
+public class GameFile {
+    private static final int MAGIC = 0x4F474631;     // "OGF1"
+
+    private GameFile() {
+    }
+
+    /**
+     * A game as stored in a file. A Game can be reused for each game read.
+     */
+    public static class Game {
+        int size;
+        int[] moves = new int[64];
+        int count;                  // The number of moves
+        int openingMoves;           // The number of random moves at the start
+        int result;                 // Tokens of black minus those of white at the end
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getMoveCount() {
+            return count;
+        }
+
+        /**
+         * Returns the i'th move as col*size+row.
+         */
+        public int getMove(int i) {
+            return moves[i];
+        }
+
+        public int getOpeningMoves() {
+            return openingMoves;
+        }
+
+        public int getResult() {
+            return result;
+        }
+
+        void clear(int size) {
+            this.size = size;
+            count = 0;
+            openingMoves = 0;
+            result = 0;
+        }
+
+        void add(int move) {
+            if (count == moves.length)
+                moves = Arrays.copyOf(moves, 2 * count);
+            moves[count++] = move;
+        }
+
+        /**
+         * Returns the state after the first plies moves, with passes where a player has no legal move.
+         * @throws IllegalStateException if a move is illegal
+         */
+        public GameState replay(int plies) {
+            GameState s = new GameState(size, 1);
+            for (int i = 0; i < plies; i++) {
+                if (s.legalMoves().isEmpty())
+                    s.changePlayer();
+                if (!s.insertToken(new Position(moves[i] / size, moves[i] % size)))
+                    throw new IllegalStateException("Illegal move " + i + " in game");
+            }
+            return s;
+        }
+
+        /**
+         * Returns a hash of the moves, which tells games apart (see Seen).
+         */
+        public long hash() {
+            long h = size;
+            for (int i = 0; i < count; i++)
+                h = (h ^ moves[i]) * 0x9E3779B97F4A7C15L + i;
+            return h ^ h >>> 29;
+        }
+
+        /**
+         * Returns the moves like "c4 e3 f6", as read by Tournament.
+         */
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                if (i > 0)
+                    text.append(' ');
+                text.append((char) ('a' + moves[i] / size)).append(moves[i] % size + 1);
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * Writes games to a new file, or appends them to an existing one of the same board size.
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final int size;
+
+        public Writer(String file, int size, boolean append) throws IOException {
+            this.size = size;
+            boolean exists = append && Files.exists(Paths.get(file)) && Files.size(Paths.get(file)) > 0;
+            if (exists) {
+                try (Reader reader = new Reader(file)) {
+                    if (reader.getSize() != size)
+                        throw new IOException(file + " holds games of size " + reader.getSize());
+                }
+            }
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(Paths.get(file),
+                    StandardOpenOption.CREATE, exists ? StandardOpenOption.APPEND
+                            : StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), 1 << 16));
+            if (!exists) {
+                out.writeInt(MAGIC);
+                out.writeInt(size);
+            }
+        }
+
+        public void write(Game game) throws IOException {
+            if (game.size != size)
+                throw new IllegalArgumentException("Game of size " + game.size + " in a file of size " + size);
+            out.writeShort(game.count);
+            out.writeByte(game.openingMoves);
+            out.writeShort(game.result);
+            for (int i = 0; i < game.count; i++) {
+                if (size <= 16)
+                    out.writeByte(game.moves[i]);
+                else
+                    out.writeShort(game.moves[i]);
+            }
+        }
+
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the games of a file in order.
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final int size;
+
+        public Reader(String file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(file)), 1 << 16));
+            try {
+                if (in.readInt() != MAGIC)
+                    throw new IOException("Not a game file: " + file);
+                size = in.readInt();
+            } catch (EOFException e) {
+                in.close();
+                throw new IOException("Not a game file: " + file);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * Reads the next game into the given one, and returns false if there are no more games.
+         * @throws IOException if the file cannot be read or ends within a game
+         */
+        public boolean next(Game game) throws IOException {
+            int count = in.read();
+            if (count < 0)
+                return false;
+            game.clear(size);
+            count = count << 8 | in.readUnsignedByte();
+            game.openingMoves = in.readUnsignedByte();
+            game.result = in.readShort();
+            for (int i = 0; i < count; i++)
+                game.add(size <= 16 ? in.readUnsignedByte() : in.readUnsignedShort());
+            return true;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * The set of the hashes of the games seen, to skip repeated games. It keeps the hashes rather than the games,
+     * in an open addressing table that is at most 3/4 full, so 10 million games take 128 MB.
+     */
+    static class Seen {
+        private long[] hashes = new long[1 << 16];      // 0 marks an empty slot
+        private int count;
+
+        /**
+         * Adds the hash of the game, and returns false if it was seen before.
+         */
+        boolean add(Game game) {
+            long hash = game.hash();
+            if (hash == 0)
+                hash = 1;
+            if (4 * (count + 1) > 3 * hashes.length)
+                grow();
+            int mask = hashes.length - 1;
+            for (int i = (int) (hash ^ hash >>> 32) & mask; ; i = (i + 1) & mask) {
+                if (hashes[i] == hash)
+                    return false;
+                if (hashes[i] == 0) {
+                    hashes[i] = hash;
+                    count++;
+                    return true;
+                }
+            }
+        }
+
+        private void grow() {
+            long[] old = hashes;
+            hashes = new long[2 * old.length];
+            int mask = hashes.length - 1;
+            for (long hash : old) {
+                if (hash == 0)
+                    continue;
+                int i = (int) (hash ^ hash >>> 32) & mask;
+                while (hashes[i] != 0)
+                    i = (i + 1) & mask;
+                hashes[i] = hash;
+            }
+        }
+    }
+
+    /**
+     * Usage: java GameFile info file | print file [n] | dedup in out
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 2 && args[0].equals("info")) {
+            long games = 0;
+            long moves = 0;
+            long blackWins = 0;
+            long draws = 0;
+            Game game = new Game();
+            int size;
+            try (Reader reader = new Reader(args[1])) {
+                size = reader.getSize();
+                while (reader.next(game)) {
+                    games++;
+                    moves += game.count;
+                    if (game.result > 0)
+                        blackWins++;
+                    else if (game.result == 0)
+                        draws++;
+                }
+            }
+            System.out.printf("%d games of %dx%d, %.1f moves per game%n", games, size, size,
+                    games == 0 ? 0.0 : (double) moves / games);
+            if (games > 0)
+                System.out.printf("Black wins %.1f%%, draws %.1f%%, white wins %.1f%%%n", 100.0 * blackWins / games,
+                        100.0 * draws / games, 100.0 * (games - blackWins - draws) / games);
+        } else if (args.length >= 2 && args[0].equals("print")) {
+            long n = args.length >= 3 ? Long.parseLong(args[2]) : Long.MAX_VALUE;
+            Game game = new Game();
+            try (Reader reader = new Reader(args[1])) {
+                for (long i = 0; i < n && reader.next(game); i++)
+                    System.out.println(game + " # " + game.result);
+            }
+        } else if (args.length >= 3 && args[0].equals("dedup")) {
+            long games = 0;
+            long kept = 0;
+            Seen seen = new Seen();
+            Game game = new Game();
+            try (Reader reader = new Reader(args[1]);
+                 Writer writer = new Writer(args[2], reader.getSize(), false)) {
+                while (reader.next(game)) {
+                    games++;
+                    if (seen.add(game)) {
+                        writer.write(game);
+                        kept++;
+                    }
+                }
+            }
+            System.out.println("Kept " + kept + " of " + games + " games");
+        } else {
+            System.err.println("Usage: java GameFile info file | print file [n] | dedup in out");
+            System.exit(1);
+        }
+    }
+}
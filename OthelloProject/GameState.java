@@ -1,15 +1,56 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Class to represent the state of a game of Othello.  The state is defined by a 2-dimensional
  * board and whose turn it is. 
+ * 8x8 boards are stored as two bitboards (see BitBoard), other sizes up to 64x64 as two bitboards of a word per
+ * column (see WideBitBoard) as well as an int[][] array, and larger sizes as the array only.
+ * Every state carries a 64-bit Zobrist hash that is updated with each change, and two states are equal if they 
+ * have the same board and player in turn. A state used as a key in a hash map should therefore not be changed.
+ * The numbers of tokens, and the weighted score of the board if weights are set, are also updated with each change,
+ * so they are known without scanning the board.
+ * The legal moves of the player in turn, and whether each player can move, are found at most once per position: 
+ * they are kept until the board changes, so isFinished, mustPass and legalMoves can be called on the same state 
+ * without generating the moves again.
  * @author Mai Ajspur
  * @version 9.2.2018
  */
 public class GameState {
-	private int[][] board; 		// Possible values: 0 (empty), 1 (black), 2 (white)
+	private int[][] board; 		// Possible values: 0 (empty), 1 (black), 2 (white). Kept in sync with the bitboards.
+	private long black;			// Bitboard of the black tokens if the board is 8x8
+	private long white;			// Bitboard of the white tokens if the board is 8x8
+	private boolean bitboard;	// Whether black and white (rather than board) hold the position
+	private long[] blackColumns;	// A word per column (see WideBitBoard) of the black tokens, or null
+	private long[] whiteColumns;	// A word per column of the white tokens, or null
+	private WideBitBoard wide;		// Generates the moves on the columns, created when first needed. Not shared with copies.
 	private int currentPlayer; 	// The player who is next to put a token on the board. Value is 1 or 2.
 	private int size;  			// The number of columns = the number of rows on the board
+	private int[] turned;		// Places (col*size+row) turned by makeMove on boards that are not 8x8, most recent last
+	private int turnedCount;	// The number of places on the turned stack
+	private long hash;			// Zobrist hash of the board and the player in turn
+	private int blackTokens;	// The number of tokens of player 1
+	private int whiteTokens;	// The number of tokens of player 2
+	private int[][] weights;	// The weights given to setWeights, or null
+	private int[] placeWeights;	// The weights by place (col*size+row)
+	private int weightedScore;	// The sum of the weights of the places of black minus that of white
+	private boolean movesFound;	// Whether the legal moves of the player in turn are kept in one of the three below
+	private long moveMask;		// The moves as a bitboard if the board is 8x8
+	private long[] moveColumns;	// The moves as column bitboards if WideBitBoard applies. Not changed once found.
+	private ArrayList<Position> moves;	// The moves if the board is larger. Never handed out.
+	private int movesKnown;		// Bit player-1 is set if it is known whether that player has a legal move
+	private int canMove;		// Bit player-1 is set if that player has a legal move (if known)
+
+	// Zobrist keys for a token of player 1 or 2 on place col*size+row. Keys for boards larger than 
+	// 64x64 are computed when needed.
+	private static final int ZOBRIST_PLACES = 64*64;
+	private static final long[] ZOBRIST = new long[2*ZOBRIST_PLACES];
+	private static final long ZOBRIST_PLAYER2 = mix(-1);
+	private static final BoardKernel KERNEL = BoardKernel.get();
+	static {
+		for (int i = 0; i < ZOBRIST.length; i++)
+			ZOBRIST[i] = mix(i);
+	}
 	
 	//************ Constructors ****************//
 	/**
@@ -29,6 +70,9 @@ public class GameState {
         board[half+1][half+1] = 1;
         board[half][half+1] = 2;
         board[half+1][half] = 2;   
+        packBoard();
+        hash = computeHash();
+        countTokensOnBoard();
 	}
 	
 	/**
@@ -47,8 +91,84 @@ public class GameState {
 			}
 		}
 		this.currentPlayer = playerToTakeTurn;
+		packBoard();
+		hash = computeHash();
+		countTokensOnBoard();
+	}
+
+	/**
+	 * Constructs a copy of the given game state.
+	 */
+	public GameState(GameState s){
+		this.size = s.size;
+		this.currentPlayer = s.currentPlayer;
+		this.bitboard = s.bitboard;
+		this.black = s.black;
+		this.white = s.white;
+		this.hash = s.hash;
+		this.blackTokens = s.blackTokens;
+		this.whiteTokens = s.whiteTokens;
+		this.weights = s.weights;
+		this.placeWeights = s.placeWeights;
+		this.weightedScore = s.weightedScore;
+		this.movesFound = s.movesFound;
+		this.moveMask = s.moveMask;
+		this.moveColumns = s.moveColumns;
+		this.moves = s.moves;
+		this.movesKnown = s.movesKnown;
+		this.canMove = s.canMove;
+		if ( s.blackColumns != null ){
+			this.blackColumns = s.blackColumns.clone();
+			this.whiteColumns = s.whiteColumns.clone();
+		}
+		this.board = new int[size][size];
+		for (int i = 0; i < size; i++){
+			for (int j = 0; j < size; j++){
+				this.board[i][j] = s.board[i][j];
+			}
+		}
+	}
+
+	/**
+	 * Switches to the bitboard representation if the board is 8x8, and adds the column bitboards if the board is
+	 * another size WideBitBoard applies to.
+	 */
+	private void packBoard(){
+		if ( WideBitBoard.applies(size) ){
+			blackColumns = new long[size];
+			whiteColumns = new long[size];
+			for (int i = 0; i < size; i++){
+				for (int j = 0; j < size; j++){
+					if ( board[i][j] == 1 )
+						blackColumns[i] |= 1L << j;
+					else if ( board[i][j] == 2 )
+						whiteColumns[i] |= 1L << j;
+				}
+			}
+		}
+		if ( size != BitBoard.SIZE )
+			return;
+		bitboard = true;
+		for (int i = 0; i < size; i++){
+			for (int j = 0; j < size; j++){
+				long bit = 1L << BitBoard.square(i, j);
+				if ( board[i][j] == 1 )
+					black |= bit;
+				else if ( board[i][j] == 2 )
+					white |= bit;
+			}
+		}
 	}
 	
+	/**
+	 * Counts the tokens of each player on the board.
+	 */
+	private void countTokensOnBoard(){
+		int[] tokens = KERNEL.countTokens(board);
+		blackTokens = tokens[0];
+		whiteTokens = tokens[1];
+	}
+
 	//************ Getter methods *******************//
 	/**
 	 * Returns the array representing the board of this game state
@@ -64,30 +184,93 @@ public class GameState {
 		return currentPlayer;
 	}
 
+	/**
+	 * Returns the Zobrist hash of this game state. Equal states have equal hashes.
+	 */
+	public long hash(){
+		return hash;
+	}
+
 	//************* Methods ****************//
 	/**
 	 * Skips the turn of the current player (without) changing the board.
 	 */
 	public void changePlayer(){
 		currentPlayer = currentPlayer == 1 ? 2 : 1;
+		hash ^= ZOBRIST_PLAYER2;
+		movesFound = false; // Whether each player can move is still known
 	}
 	
 	/**
 	 * Returns true if the game is finished (i.e. none of the players can make any legal moves)
-	 * and false otherwise.
+	 * and false otherwise. The state is not changed.
 	 */
 	public boolean isFinished(){
-		if ( !legalMoves().isEmpty() )
-			return false;
-		else{ //current player has no legal moves
-			changePlayer();
-			if ( legalMoves().isEmpty() ) //next player also has no legal moves
-				return true;
-			else{
-				changePlayer();
-				return false;
-			}
+		return !canMove(currentPlayer) && !canMove(currentPlayer == 1 ? 2 : 1);
+	}
+
+	/**
+	 * Returns true if the player in turn has no legal moves but the other player has, so the player in turn
+	 * has to pass (see changePlayer).
+	 */
+	public boolean mustPass(){
+		return !canMove(currentPlayer) && canMove(currentPlayer == 1 ? 2 : 1);
+	}
+
+	/**
+	 * Returns true if the given player has a legal move on the board, finding out only once per position. 
+	 */
+	private boolean canMove(int player){
+		int bit = 1 << (player-1);
+		if ( (movesKnown & bit) == 0 )
+			findCanMove(player);
+		return (canMove & bit) != 0;
+	}
+
+	/**
+	 * Finds out if the given player has a legal move. On 8x8 boards the moves of the player in turn are found in 
+	 * full, which costs no more, and otherwise the search stops at the first move found.
+	 */
+	private void findCanMove(int player){
+		if ( player == currentPlayer && bitboard ){
+			findMoves();
+			return;
 		}
+		boolean any;
+		if ( bitboard )
+			any = BitBoard.moves(opponent(), own()) != 0;
+		else if ( blackColumns != null )
+			any = wide().moves(player == 1 ? blackColumns : whiteColumns, 
+							   player == 1 ? whiteColumns : blackColumns, null);
+		else
+			any = hasCapture(player);
+		knowCanMove(player, any);
+	}
+
+	/**
+	 * Returns the move generation on the columns of this state, which keeps its scratch space between calls.
+	 */
+	private WideBitBoard wide(){
+		if ( wide == null )
+			wide = new WideBitBoard(size);
+		return wide;
+	}
+
+	private void knowCanMove(int player, boolean any){
+		int bit = 1 << (player-1);
+		movesKnown |= bit;
+		if ( any )
+			canMove |= bit;
+		else
+			canMove &= ~bit;
+	}
+
+	/**
+	 * Forgets the legal moves, when the board has changed.
+	 */
+	private void forgetMoves(){
+		movesFound = false;
+		movesKnown = 0;
 	}
 	
 	/**
@@ -95,17 +278,47 @@ public class GameState {
 	 * with the numbers in that order.
 	 */
 	public int[] countTokens(){
-    	int tokens1 = 0;
-    	int tokens2 = 0;
-    	for (int i = 0; i < size; i++){
-    		for (int j = 0; j < size; j++){
-    			if ( board[i][j] == 1 )
-    				tokens1++;
-    			else if ( board[i][j] == 2 )
-    				tokens2++;
-    		}
-    	}
-    	return new int[]{tokens1, tokens2};
+		return new int[]{blackTokens, whiteTokens};
+	}
+
+	/**
+	 * Returns the number of empty places on the board.
+	 */
+	public int countEmpty(){
+		return size*size - blackTokens - whiteTokens;
+	}
+
+	/**
+	 * Sets the weights of the places on the board, so that weightedScore can be kept up to date with each change.
+	 * The weights are shared with copies of this state and should not be changed afterwards.
+	 * @param weights The weight of each place, indexed as the board. Null removes the weights.
+	 */
+	void setWeights(int[][] weights){
+		this.weights = weights;
+		weightedScore = 0;
+		if ( weights == null ){
+			placeWeights = null;
+			return;
+		}
+		placeWeights = new int[size*size];
+		for (int i = 0; i < size; i++)
+			System.arraycopy(weights[i], 0, placeWeights, i*size, size);
+		weightedScore = KERNEL.weightedSum(board, weights);
+	}
+
+	/**
+	 * Returns true if the given weights are the ones set by setWeights, so that weightedScore can be used for them.
+	 */
+	boolean hasWeights(int[][] weights){
+		return weights != null && this.weights == weights;
+	}
+
+	/**
+	 * Returns the sum of the weights of the places of black (player 1) minus the sum of the weights of the places
+	 * of white (player 2). Only defined if weights are set.
+	 */
+	int weightedScore(){
+		return weightedScore;
 	}
 	
 	/**
@@ -118,6 +331,8 @@ public class GameState {
     		return false;
     	if ( board[place.col][place.row] != 0 ) // The position is not empty
     		return false;
+    	if ( bitboard )
+    		return insertTokenBitboard(place);
 
     	boolean capturesFound = false;
     	// Capturing all possible opponents of the current player
@@ -127,14 +342,14 @@ public class GameState {
         		if ( captives > 0){
         			capturesFound = true;
         			for ( int i = 1; i <= captives; i++)
-        				board[place.col+deltaX*i][place.row+deltaY*i]=currentPlayer;
+        				turn(place.col+deltaX*i, place.row+deltaY*i);
         		}
         	}		
     	}
     	
     	if ( capturesFound ){
     		// Place the token at the given place
-    		board[place.col][place.row] = currentPlayer;
+    		put(place.col, place.row, currentPlayer);
     		this.changePlayer();
     		return true;
     	}
@@ -143,31 +358,190 @@ public class GameState {
     	}
     }
 
+    private boolean insertTokenBitboard(Position place){
+    	return makeMoveBitboard(place) != 0;
+    }
+
+    /**
+     * Works like insertToken, but returns a record that undoMove can use to take the move back, so a search
+     * can walk the game tree on one state instead of copying it for every move. 0 is returned (and nothing 
+     * is changed) if the move is not legal.
+     * For 8x8 boards the record is the set of turned tokens. For other sizes it is the number of turned 
+     * tokens, whose places are kept by the state, so moves must be undone in the reverse order they were made.
+     */
+    public long makeMove(Position place){
+    	if ( place.col < 0 || place.row < 0 || place.col >= size || place.row >= size ) //not a position on the board
+    		return 0;
+    	if ( board[place.col][place.row] != 0 ) // The position is not empty
+    		return 0;
+    	if ( bitboard )
+    		return makeMoveBitboard(place);
+
+    	int start = turnedCount;
+    	for (int deltaX = -1; deltaX <= 1; deltaX++){
+    		for (int deltaY = -1; deltaY <= 1; deltaY++){
+        		int captives = captureInDirection(place, deltaX, deltaY); 
+        		for ( int i = 1; i <= captives; i++){
+        			int col = place.col+deltaX*i;
+        			int row = place.row+deltaY*i;
+        			turn(col, row);
+        			pushTurned(col*size+row);
+        		}
+        	}		
+    	}
+    	if ( turnedCount == start )
+    		return 0;
+    	put(place.col, place.row, currentPlayer);
+    	this.changePlayer();
+    	return turnedCount - start;
+    }
+
+    /**
+     * Takes back a move made by makeMove. The player who made the move will be in turn again.
+     * @param place The place given to makeMove
+     * @param undo The record returned by makeMove. Should not be 0.
+     */
+    public void undoMove(Position place, long undo){
+    	int mover = board[place.col][place.row];
+    	if ( currentPlayer != mover )
+    		changePlayer();
+    	if ( bitboard ){
+    		int square = BitBoard.square(place.col, place.row);
+    		long placed = undo | (1L << square);
+    		if ( mover == 1 ){
+    			black &= ~placed;
+    			white |= undo;
+    		}
+    		else {
+    			white &= ~placed;
+    			black |= undo;
+    		}
+    		turnAll(undo);
+    		remove(place.col, place.row);
+    		return;
+    	}
+    	for (long i = 0; i < undo; i++){
+    		int place1D = turned[--turnedCount];
+    		turn(place1D / size, place1D % size);
+    	}
+    	remove(place.col, place.row);
+    }
+
+    private void pushTurned(int place1D){
+    	if ( turned == null )
+    		turned = new int[4*size*size];
+    	else if ( turnedCount == turned.length )
+    		turned = Arrays.copyOf(turned, 2*turned.length);
+    	turned[turnedCount++] = place1D;
+    }
+
+    private long makeMoveBitboard(Position place){
+    	int square = BitBoard.square(place.col, place.row);
+    	long flipped = BitBoard.flips(own(), opponent(), square);
+    	if ( flipped == 0 )
+    		return 0;
+    	long placed = flipped | (1L << square);
+    	if ( currentPlayer == 1 ){
+    		black |= placed;
+    		white &= ~flipped;
+    	}
+    	else {
+    		white |= placed;
+    		black &= ~flipped;
+    	}
+    	turnAll(flipped);
+    	put(place.col, place.row, currentPlayer);
+    	this.changePlayer();
+    	return flipped;
+    }
+
     /**
      * Returns a list of all the positions on the board that constitutes a legal move for the current player.
+     * The moves are found once per position; each call returns a new list that the caller may change.
      */
     public ArrayList<Position> legalMoves(){
-    	ArrayList<Position> posPlaces = new ArrayList<Position>();
-    	for (int i = 0; i < this.size; i++){
-    		for (int j = 0; j < this.size; j++){
-    			if ( board[i][j] == 0 ){
-    				posPlaces.add(new Position(i,j));
-    			}
+    	findMoves();
+    	if ( bitboard ){
+    		long moves = moveMask;
+    		ArrayList<Position> legalPlaces = new ArrayList<Position>(Long.bitCount(moves));
+    		while ( moves != 0 ){
+    			int square = Long.numberOfTrailingZeros(moves);
+    			legalPlaces.add(new Position(square / BitBoard.SIZE, square % BitBoard.SIZE));
+    			moves &= moves - 1;
     		}
+    		return legalPlaces;
     	}
-    	ArrayList<Position> legalPlaces = new ArrayList<Position>();
-    	for (Position p: posPlaces){
-    		for (int deltaX = -1; deltaX <= 1; deltaX++){
-    			for (int deltaY = -1; deltaY <= 1; deltaY++){
-    				if ( captureInDirection(p, deltaX, deltaY) > 0 ){
-    	    			legalPlaces.add(p);
+    	if ( blackColumns != null ){
+    		ArrayList<Position> legalPlaces = new ArrayList<Position>();
+    		if ( (canMove & (1 << (currentPlayer-1))) == 0 )
+    			return legalPlaces;
+    		for (int col = 0; col < size; col++){
+    			for (long m = moveColumns[col]; m != 0; m &= m - 1)
+    				legalPlaces.add(new Position(col, Long.numberOfTrailingZeros(m)));
+    		}
+    		return legalPlaces;
+    	}
+    	return new ArrayList<Position>(moves);
+    }
+
+    /**
+     * Finds the legal moves of the player in turn, unless they are known already.
+     */
+    private void findMoves(){
+    	if ( movesFound )
+    		return;
+    	boolean any;
+    	if ( bitboard ){
+    		moveMask = BitBoard.moves(own(), opponent());
+    		any = moveMask != 0;
+    	}
+    	else if ( blackColumns != null ){
+    		moveColumns = new long[size];
+    		any = wide().moves(ownColumns(), opponentColumns(), moveColumns);
+    	}
+    	else {
+    		moves = new ArrayList<Position>();
+    		for (int i = 0; i < this.size; i++){
+    			for (int j = 0; j < this.size; j++){
+    				if ( board[i][j] == 0 && capturesInAnyDirection(i, j, currentPlayer) ){
+    					moves.add(new Position(i,j));
     				}
     			}
     		}
+    		any = !moves.isEmpty();
+    	}
+    	movesFound = true;
+    	knowCanMove(currentPlayer, any);
+    }
+
+    /**
+     * Returns true if the given player can put a token anywhere on the board, stopping at the first such place.
+     */
+    private boolean hasCapture(int player){
+    	for (int i = 0; i < this.size; i++){
+    		for (int j = 0; j < this.size; j++){
+    			if ( board[i][j] == 0 && capturesInAnyDirection(i, j, player) )
+    				return true;
+    		}
     	}
-    	return legalPlaces;
-    }	
+    	return false;
+    }
     
+    /**
+     * Checks if the given player captures any tokens by putting a token at the given empty place, 
+     * stopping at the first direction with a capture, so each legal position is listed once.
+     */
+    private boolean capturesInAnyDirection(int col, int row, int player){
+    	for (int deltaX = -1; deltaX <= 1; deltaX++){
+    		for (int deltaY = -1; deltaY <= 1; deltaY++){
+    			if ( captures(col, row, deltaX, deltaY, player) > 0 ){
+    				return true;
+    			}
+    		}
+    	}
+    	return false;
+    }
+
     /**
      * Checks how many tokens of the opponent the player can capture in the direction given by deltaX and deltaY
      * if the player puts a token at the given position.
@@ -176,11 +550,15 @@ public class GameState {
      * @param deltaY The step to be taken in the delta direction. Should be -1 (up), 0 (none), or 1 (down).
      */
     public int captureInDirection(Position p, int deltaX, int deltaY){
-    	int opponent = (currentPlayer == 1 ? 2 : 1); 
+    	return captures(p.col, p.row, deltaX, deltaY, currentPlayer);
+    }
+
+    private int captures(int col, int row, int deltaX, int deltaY, int player){
+    	int opponent = (player == 1 ? 2 : 1); 
         
     	int captured = 0;
-    	int cc = p.col;
-    	int rr = p.row;
+    	int cc = col;
+    	int rr = row;
         while ( 0 <= cc+deltaX && cc+deltaX < size && 0 <= rr+deltaY && rr+deltaY < size 
     			&& board[cc+deltaX][rr+deltaY] == opponent ){ 
         	cc = cc + deltaX;
@@ -188,13 +566,168 @@ public class GameState {
         	captured++;
         }
         if ( 0 <= cc+deltaX && cc+deltaX < size  && 0 <= rr+deltaY && rr+deltaY < size 
-    			&& board[cc+deltaX][rr+deltaY] == currentPlayer && captured > 0 ){
+    			&& board[cc+deltaX][rr+deltaY] == player && captured > 0 ){
         	return captured;
         }
         else
         	return 0;
     }
 
-	
+    /**
+     * Gives the token at the given place to the other player.
+     */
+    private void turn(int col, int row){
+    	int player = board[col][row];
+    	int other = (player == 1 ? 2 : 1);
+    	board[col][row] = other;
+    	hash ^= zobrist(player, col*size+row) ^ zobrist(other, col*size+row);
+    	if ( blackColumns != null ){
+    		blackColumns[col] ^= 1L << row;
+    		whiteColumns[col] ^= 1L << row;
+    	}
+    	if ( other == 1 ){
+    		blackTokens++;
+    		whiteTokens--;
+    	}
+    	else {
+    		whiteTokens++;
+    		blackTokens--;
+    	}
+    	if ( placeWeights != null )
+    		weightedScore += other == 1 ? 2*placeWeights[col*size+row] : -2*placeWeights[col*size+row];
+    }
+
+    /**
+     * Puts a token of the given player on an empty place. The 8x8 bitboards are updated by the caller.
+     */
+    private void put(int col, int row, int player){
+    	board[col][row] = player;
+    	hash ^= zobrist(player, col*size+row);
+    	forgetMoves();
+    	if ( blackColumns != null )
+    		(player == 1 ? blackColumns : whiteColumns)[col] |= 1L << row;
+    	int weight = placeWeights == null ? 0 : placeWeights[col*size+row];
+    	if ( player == 1 ){
+    		blackTokens++;
+    		weightedScore += weight;
+    	}
+    	else {
+    		whiteTokens++;
+    		weightedScore -= weight;
+    	}
+    }
+
+    /**
+     * Takes the token off the given place. The 8x8 bitboards are updated by the caller.
+     */
+    private void remove(int col, int row){
+    	int player = board[col][row];
+    	board[col][row] = 0;
+    	hash ^= zobrist(player, col*size+row);
+    	forgetMoves();
+    	if ( blackColumns != null )
+    		(player == 1 ? blackColumns : whiteColumns)[col] &= ~(1L << row);
+    	int weight = placeWeights == null ? 0 : placeWeights[col*size+row];
+    	if ( player == 1 ){
+    		blackTokens--;
+    		weightedScore -= weight;
+    	}
+    	else {
+    		whiteTokens--;
+    		weightedScore += weight;
+    	}
+    }
+
+    private long computeHash(){
+    	long h = currentPlayer == 2 ? ZOBRIST_PLAYER2 : 0;
+    	for (int i = 0; i < size; i++){
+    		for (int j = 0; j < size; j++){
+    			int player = board[i][j];
+    			if ( player != 0 )
+    				h ^= zobrist(player, i*size+j);
+    		}
+    	}
+    	return h;
+    }
+
+    /**
+     * Gives the tokens on the given 8x8 squares to the other player.
+     */
+    private void turnAll(long squares){
+    	while ( squares != 0 ){
+    		int square = Long.numberOfTrailingZeros(squares);
+    		turn(square / BitBoard.SIZE, square % BitBoard.SIZE);
+    		squares &= squares - 1;
+    	}
+    }
+
+    private static long zobrist(int player, int place1D){
+    	if ( place1D < ZOBRIST_PLACES )
+    		return ZOBRIST[(player-1)*ZOBRIST_PLACES+place1D];
+    	return mix(2L*place1D + player);
+    }
+
+    // The SplitMix64 finalizer, used to derive the Zobrist keys
+    private static long mix(long x){
+    	x = (x + 0x9E3779B97F4A7C15L) * 0xBF58476D1CE4E5B9L;
+    	x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+    	x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+    	return x ^ (x >>> 31);
+    }
+
+    @Override
+    public boolean equals(Object o){
+    	if ( o == this )
+    		return true;
+    	if ( !(o instanceof GameState) )
+    		return false;
+    	GameState s = (GameState) o;
+    	if ( s.hash != hash || s.size != size || s.currentPlayer != currentPlayer )
+    		return false;
+    	if ( bitboard )
+    		return s.black == black && s.white == white;
+    	return Arrays.deepEquals(s.board, board);
+    }
+
+    @Override
+    public int hashCode(){
+    	return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * Returns true if the board is 8x8 and own() and opponent() can be used.
+     */
+    boolean isBitboard(){
+    	return bitboard;
+    }
+
+    /**
+     * Returns the bitboard (see BitBoard) of the tokens of the player in turn.
+     */
+    long own(){
+    	return currentPlayer == 1 ? black : white;
+    }
+
+    /**
+     * Returns the bitboard (see BitBoard) of the tokens of the player not in turn.
+     */
+    long opponent(){
+    	return currentPlayer == 1 ? white : black;
+    }
+
+    /**
+     * Returns the column bitboards (see WideBitBoard) of the tokens of the player in turn, or null if the board
+     * has none. The array is the state's own, so it should not be changed.
+     */
+    long[] ownColumns(){
+    	return currentPlayer == 1 ? blackColumns : whiteColumns;
+    }
+
+    /**
+     * Returns the column bitboards of the tokens of the player not in turn, or null if the board has none.
+     */
+    long[] opponentColumns(){
+    	return currentPlayer == 1 ? whiteColumns : blackColumns;
+    }
 
 }
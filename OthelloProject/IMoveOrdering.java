@@ -0,0 +1,36 @@
+import java.util.ArrayList;
+
+/**
+ * Interface for the stage of an alpha-beta search that decides in which order the moves of a node are searched.
+ * The earlier the best move is searched, the more of the remaining moves can be pruned.
+ */
+public interface IMoveOrdering {
+
+	/**
+	 * Sorts the moves so that the most promising come first.
+	 * @param s The state the moves are legal in
+	 * @param moves The legal moves of s, which are reordered in place
+	 * @param ply The distance of s from the root of the search
+	 */
+	public void order(GameState s, ArrayList<Position> moves, int ply);
+
+	/**
+	 * Tells the ordering that a move was good enough to cause a cutoff.
+	 * @param move The move that caused the cutoff
+	 * @param ply The distance from the root of the state in which the move was made
+	 * @param depth The remaining search depth of that state
+	 */
+	public void cutoff(Position move, int ply, int depth);
+
+	/**
+	 * Called before the search of a new move starts.
+	 */
+	public void newSearch();
+
+	/**
+	 * Tells the ordering the weights of the places used by the search, which may change from move to move (see
+	 * WeightTables). Orderings that do not use the weights can ignore it.
+	 */
+	public default void setWeights(int[][] weights) {
+	}
+}
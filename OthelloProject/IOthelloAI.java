@@ -14,5 +14,20 @@ public interface IOthelloAI {
 	 * e.g. (-1, -1) if no moves are possible.
 	 */
 	public Position decideMove(GameState s);
+
+	/**
+	 * Asks the AI to return from decideMove as soon as it can, with the best move it has found so far. It is
+	 * called from another thread than decideMove, e.g. by the "Move now" button of the GUI. AIs that cannot
+	 * stop early may ignore it.
+	 */
+	public default void stop() {
+	}
+
+	/**
+	 * Sets the listener to tell of the progress of decideMove, or null for none. AIs that do not report their
+	 * progress may ignore it.
+	 */
+	public default void setSearchListener(ISearchListener listener) {
+	}
 	
 }
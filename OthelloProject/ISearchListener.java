@@ -0,0 +1,11 @@
+/**
+ * Listener for the progress of an AI deciding a move, e.g. to show it in the GUI while the AI searches.
+ * It is called on the thread of the search, so it should return quickly.
+ */
+public interface ISearchListener {
+
+    /**
+     * Tells the best move found so far and the depth of the search that found it.
+     */
+    public void progress(Position best, int depth);
+}
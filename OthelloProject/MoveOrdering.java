@@ -0,0 +1,100 @@
+import java.util.ArrayList;
+
+/**
+ * Default move ordering for the alpha-beta searches. Moves are searched in this order:
+ * - the best move stored in the transposition table for the state (from the previous iteration)
+ * - the two killer moves of the ply, i.e. the latest moves that caused a cutoff in a sibling state
+ * - the remaining moves by the weight of their place, and by the history score among places with equal weight.
+ *   The history score of a place grows with every cutoff caused by a move there, and is kept across iterations.
+ */
+public class MoveOrdering implements IMoveOrdering {
+    private static final int HASH_MOVE_SCORE = Integer.MAX_VALUE;
+    private static final int KILLER_SCORE = Integer.MAX_VALUE - 2;
+    private static final int MAX_HISTORY = (1 << 24) - 1;
+    private static final int MAX_WEIGHT = 63;      // Weights are clamped to -MAX_WEIGHT..MAX_WEIGHT for sorting
+
+    private final TranspositionTable table;
+    private int[][] weights;
+    private final int size;
+    private final int[][] killers;  // Two killer moves (col*size+row, -1 if none) for each ply
+    private final int[] history;    // History score of each place col*size+row
+    private final int[][] scores;   // Scratch space for sorting, one array per ply
+
+    /**
+     * @param table The table the search stores the best move of each state in
+     * @param weights The weights of the places on the board
+     */
+    public MoveOrdering(TranspositionTable table, int[][] weights) {
+        this.table = table;
+        this.weights = weights;
+        this.size = weights.length;
+        int maxPly = size * size + 1;
+        killers = new int[maxPly][2];
+        history = new int[size * size];
+        scores = new int[maxPly][];
+        newSearch();
+    }
+
+    public void setWeights(int[][] weights) {
+        this.weights = weights;
+    }
+
+    public void order(GameState s, ArrayList<Position> moves, int ply) {
+        int n = moves.size();
+        if (n < 2)
+            return;
+        if (scores[ply] == null)
+            scores[ply] = new int[size * size];
+        int[] score = scores[ply];
+        int hashMove = TranspositionTable.move(table.probe(s.hash()));
+        for (int i = 0; i < n; i++) {
+            Position p = moves.get(i);
+            int place = p.col * size + p.row;
+            if (place == hashMove)
+                score[i] = HASH_MOVE_SCORE;
+            else if (place == killers[ply][0])
+                score[i] = KILLER_SCORE;
+            else if (place == killers[ply][1])
+                score[i] = KILLER_SCORE - 1;
+            else
+                score[i] = (Math.max(-MAX_WEIGHT, Math.min(MAX_WEIGHT, weights[p.col][p.row])) + MAX_WEIGHT << 24)
+                        + history[place];
+        }
+
+        // Insertion sort, descending by score. There are rarely more than a dozen moves.
+        for (int i = 1; i < n; i++) {
+            Position p = moves.get(i);
+            int v = score[i];
+            int j = i - 1;
+            while (j >= 0 && score[j] < v) {
+                score[j + 1] = score[j];
+                moves.set(j + 1, moves.get(j));
+                j--;
+            }
+            score[j + 1] = v;
+            moves.set(j + 1, p);
+        }
+    }
+
+    public void cutoff(Position move, int ply, int depth) {
+        int place = move.col * size + move.row;
+        if (killers[ply][0] != place) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = place;
+        }
+        history[place] = Math.min(MAX_HISTORY, history[place] + depth * depth);
+    }
+
+    /**
+     * Forgets the killer moves, which belong to the previous position, and halves the history scores so that
+     * recent cutoffs count the most.
+     */
+    public void newSearch() {
+        for (int[] k : killers) {
+            k[0] = -1;
+            k[1] = -1;
+        }
+        for (int i = 0; i < history.length; i++)
+            history[i] >>= 1;
+    }
+}
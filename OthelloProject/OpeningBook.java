@@ -0,0 +1,242 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Book of precomputed moves for the first plies of 8x8 games, so the engines do not have to search the opening.
+ *
+ * A position looks the same from the view of the player in turn after any of the 8 rotations and reflections of
+ * the board, so the book stores each position once, on the symmetric board with the smallest key (the canonical
+ * board), and maps the move back to the board being played.
+ *
+ * The book file is a header (magic number and number of records) followed by records of 10 bytes sorted by key:
+ * the key of the canonical board (8 bytes), the move on the canonical board as col*8+row (1 byte) and the depth
+ * it was searched to (1 byte). The file is memory mapped and binary searched, so it is not read onto the heap.
+ * The book is built by running this class, see main.
+ */
+public class OpeningBook {
+    public static final String DEFAULT_FILE = "opening.book";
+
+    private static final int MAGIC = 0x4F424B31;     // "OBK1"
+    private static final int HEADER = 8;
+    private static final int RECORD = 10;
+
+    private static OpeningBook defaultBook;
+
+    private final MappedByteBuffer buffer;           // null for an empty book
+    private final int count;                         // The number of records
+
+    private OpeningBook(MappedByteBuffer buffer, int count) {
+        this.buffer = buffer;
+        this.count = count;
+    }
+
+    /**
+     * Maps the given book file.
+     * @throws IOException if the file cannot be read or is not a book
+     */
+    public static OpeningBook open(String file) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            long size = channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (size < HEADER || buffer.getInt(0) != MAGIC)
+                throw new IOException("Not an opening book: " + file);
+            int count = buffer.getInt(4);
+            if (HEADER + (long) count * RECORD > size)
+                throw new IOException("Opening book is truncated: " + file);
+            return new OpeningBook(buffer, count);
+        }
+    }
+
+    /**
+     * Returns the book in DEFAULT_FILE in the working directory, or an empty book if there is none.
+     * The file is mapped the first time this is called.
+     */
+    public static synchronized OpeningBook getDefault() {
+        if (defaultBook == null) {
+            try {
+                defaultBook = open(DEFAULT_FILE);
+            } catch (NoSuchFileException e) {
+                defaultBook = new OpeningBook(null, 0);
+            } catch (IOException e) {
+                System.out.println("Could not open the opening book: " + e.getMessage());
+                defaultBook = new OpeningBook(null, 0);
+            }
+        }
+        return defaultBook;
+    }
+
+    /**
+     * Returns the number of positions in the book.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns the book move for the player in turn, or null if the position is not in the book.
+     */
+    public Position lookup(GameState s) {
+        if (count == 0 || !s.isBitboard())
+            return null;
+        long p = s.own();
+        long o = s.opponent();
+        int symmetry = canonicalSymmetry(p, o);
+        int i = find(key(transform(p, symmetry), transform(o, symmetry)));
+        if (i < 0)
+            return null;
+        long bookMove = 1L << buffer.get(HEADER + i * RECORD + 8);
+
+        // The legal move that the symmetry takes to the book move. There is none if two positions share a key.
+        for (long moves = BitBoard.moves(p, o); moves != 0; moves &= moves - 1) {
+            int square = Long.numberOfTrailingZeros(moves);
+            if (transform(1L << square, symmetry) == bookMove)
+                return new Position(square / BitBoard.SIZE, square % BitBoard.SIZE);
+        }
+        return null;
+    }
+
+    // Binary search for the record with the given key
+    private int find(long key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midKey = buffer.getLong(HEADER + mid * RECORD);
+            if (midKey < key)
+                low = mid + 1;
+            else if (midKey > key)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    //************ Symmetries ****************//
+
+    /**
+     * Returns the symmetry (0-7) that takes the board to its canonical board, the one with the smallest key.
+     */
+    static int canonicalSymmetry(long p, long o) {
+        int best = 0;
+        long bestKey = key(p, o);
+        for (int symmetry = 1; symmetry < 8; symmetry++) {
+            long key = key(transform(p, symmetry), transform(o, symmetry));
+            if (key < bestKey) {
+                bestKey = key;
+                best = symmetry;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Applies one of the 8 symmetries of the board to a bitboard. Bit 0 of the symmetry reflects the rows,
+     * bit 1 reflects the columns and bit 2 swaps columns and rows.
+     */
+    static long transform(long b, int symmetry) {
+        if ((symmetry & 1) != 0)
+            b = Long.reverse(Long.reverseBytes(b));    // row -> 7 - row
+        if ((symmetry & 2) != 0)
+            b = Long.reverseBytes(b);                  // col -> 7 - col
+        if ((symmetry & 4) != 0)
+            b = transpose(b);                          // (col, row) -> (row, col)
+        return b;
+    }
+
+    private static long transpose(long b) {
+        long t = 0x0F0F0F0F00000000L & (b ^ (b << 28));
+        b ^= t ^ (t >>> 28);
+        t = 0x3333000033330000L & (b ^ (b << 14));
+        b ^= t ^ (t >>> 14);
+        t = 0x5500550055005500L & (b ^ (b << 7));
+        b ^= t ^ (t >>> 7);
+        return b;
+    }
+
+    // Key of a board from the view of the player in turn
+    private static long key(long p, long o) {
+        return mix(p ^ mix(o));
+    }
+
+    // The SplitMix64 finalizer
+    private static long mix(long x) {
+        x = (x + 0x9E3779B97F4A7C15L) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    //************ Building ****************//
+
+    /**
+     * Builds a book of all positions up to the given number of plies from the start position, each searched
+     * by OthelloAIPrune to the given depth for the player in turn, and writes it to the given file.
+     */
+    public static void build(String file, int plies, int depth) throws IOException {
+        TreeMap<Long, GameState> positions = new TreeMap<>();
+        collect(new GameState(BitBoard.SIZE, 1), plies, positions);
+        System.out.println("Positions: " + positions.size());
+
+        // The table is cleared for each position, so a move does not depend on the positions searched before it
+        TranspositionTable table = new TranspositionTable(20);
+        OthelloAIPrune ai = new OthelloAIPrune(0, table);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(positions.size());
+            int done = 0;
+            for (Map.Entry<Long, GameState> entry : positions.entrySet()) {
+                GameState s = entry.getValue();
+                table.clear();
+                ai.definingWeights(s);
+                Position move = ai.iterate(s, s.legalMoves(), Deadline.none(), 1, depth);
+                int symmetry = canonicalSymmetry(s.own(), s.opponent());
+                long square = transform(1L << BitBoard.square(move.col, move.row), symmetry);
+                out.writeLong(entry.getKey());
+                out.writeByte(Long.numberOfTrailingZeros(square));
+                out.writeByte(ai.getCompletedDepth());
+                if (++done % 100 == 0)
+                    System.out.println(done + "/" + positions.size());
+            }
+        }
+    }
+
+    // Adds the state and the states reachable from it in the given number of plies, by the key of their canonical board
+    private static void collect(GameState s, int plies, TreeMap<Long, GameState> positions) {
+        ArrayList<Position> moves = s.legalMoves();
+        if (moves.isEmpty())
+            return;
+        long p = s.own();
+        long o = s.opponent();
+        int symmetry = canonicalSymmetry(p, o);
+        positions.putIfAbsent(key(transform(p, symmetry), transform(o, symmetry)), s);
+        if (plies == 0)
+            return;
+        for (Position move : moves) {
+            GameState next = new GameState(s);
+            next.insertToken(move);
+            collect(next, plies - 1, positions);
+        }
+    }
+
+    /**
+     * Builds the book. Usage: java OpeningBook [file] [plies] [depth]
+     */
+    public static void main(String[] args) throws IOException {
+        String file = args.length >= 1 ? args[0] : DEFAULT_FILE;
+        int plies = args.length >= 2 ? Integer.parseInt(args[1]) : 6;
+        int depth = args.length >= 3 ? Integer.parseInt(args[2]) : 10;
+        long start = System.nanoTime();
+        build(file, plies, depth);
+        System.out.println("Took: " + (System.nanoTime() - start) / 1e9 + " seconds.");
+    }
+}
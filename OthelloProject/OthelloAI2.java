@@ -6,6 +6,29 @@ import java.util.concurrent.*;
 public class OthelloAI2 implements IOthelloAI{
 	// minimax solution
 	public int[][] weights = null;
+	private final BoardKernel kernel = BoardKernel.get();
+	// Utility of states searched from the root, kept between moves and games in a table of fixed size (1MB), so
+	// the instances kept by Tournament and SelfPlay do not grow. It is cleared when the weights change (see
+	// definingWeights), so a cached utility stays valid for searches that are no deeper than the cached one.
+	private final TranspositionTable cachedComputations = new TranspositionTable(16);
+
+	public static final long DEFAULT_TIME_LIMIT = 2000;
+
+	private final long timeLimit;	// Milliseconds the parallel search may spend on one move
+	private Deadline deadline;		// Deadline of the move being searched, or null for a fixed depth search
+
+	private final EndgameSolver endgameSolver = new EndgameSolver();
+
+	public OthelloAI2(){
+		this(DEFAULT_TIME_LIMIT);
+	}
+
+	/**
+	 * @param timeLimit The time in milliseconds the AI may spend on deciding a move
+	 */
+	public OthelloAI2(long timeLimit){
+		this.timeLimit = timeLimit;
+	}
 
 	public Position decideMove(GameState s){
         //return decideMoveSequential(s); //Sequential (old implementation)
@@ -17,17 +40,20 @@ public class OthelloAI2 implements IOthelloAI{
         // Defining weights
         definingWeights(s);
         int searchDepth = 8;
+        deadline = null;
 
         Timer timer = new Timer();
 	    ArrayList<Position> moves = s.legalMoves();
         System.out.println("Number of available moves: " + moves.size());
 
+        GameState state = new GameState(s);
+        state.setWeights(weights);
         Position best=moves.get(0);
         int max=0;
         for(Position p : moves){
-            GameState s1 = new GameState(s.getBoard(),s.getPlayerInTurn());
-            s1.insertToken(p);
-            int utility=min(s1,0,s.getBoard().length*s.getBoard()[0].length, searchDepth - 1);
+            long undo = state.makeMove(p);
+            int utility=min(state,0,s.getBoard().length*s.getBoard()[0].length, searchDepth - 1);
+            state.undoMove(p, undo);
             if(max<utility){
                 max=utility;
                 best=p;
@@ -38,35 +64,63 @@ public class OthelloAI2 implements IOthelloAI{
     }
 
     /**
-     * Uses Java 8 parallel streams to speed up implementation.
+     * Uses Java 8 parallel streams to speed up implementation. Searches deeper one ply at a time until 
+     * the time limit is reached, and returns the best move of the deepest search that finished.
      * @param s
      * @return
      */
     public Position decideMoveInParallelStream(GameState s){
         // Defining weights
         definingWeights(s);
-        int searchDepth = 8;
         //Setting up:
         Timer timer = new Timer();
+        deadline = new Deadline(timeLimit);
+        cachedComputations.newSearch();
         ArrayList<Position> moves = s.legalMoves();
         System.out.println("Number of available moves: " + moves.size());
-        ConcurrentHashMap<GameState,Tuple> cachedComputations = new ConcurrentHashMap<>();
+        int[] tokens = s.countTokens();
+        int emptyPlaces = s.getBoard().length*s.getBoard().length - tokens[0] - tokens[1];
 
+        //Near the end, solve the game with half of the time, and search with the rest if that is not enough:
+        if (EndgameSolver.applies(s)) {
+            Position solved = endgameSolver.solveForEngine(s, new Deadline(timeLimit / 2));
+            if (solved != null) {
+                System.out.println("Solved: " + endgameSolver.getScore() + ". Took: " + timer.check() + " seconds.");
+                return solved;
+            }
+        }
+
+        //Iterative deepening, the unfinished search at the deadline is discarded:
+        Position best = moves.get(0);
+        int depth = 0;
+        try {
+            while(depth < emptyPlaces){
+                best = searchRootInParallel(s, moves, depth + 1);
+                depth++;
+            }
+        }
+        catch (Deadline.Expired e) {}
+        //Print time:
+        System.out.println("Depth: " + depth + ". Took: " + timer.check() + " seconds.");
+        //Return result:
+        return best;
+    }
+
+    private Position searchRootInParallel(GameState s, ArrayList<Position> moves, int searchDepth){
         //Computing best move in parallel
         Optional<Tuple> bestMove = moves.stream().parallel().map(position -> {
-            GameState s1 = new GameState(s.getBoard(),s.getPlayerInTurn());
-            if(cachedComputations.contains(s1)){
-                return cachedComputations.get(s1);
-            }
+            GameState s1 = new GameState(s);
+            s1.setWeights(weights);
             s1.insertToken(position);
+            long cached = cachedComputations.probe(s1.hash());
+            if(cached != 0 && TranspositionTable.depth(cached) >= searchDepth - 1){
+                return new Tuple(position,TranspositionTable.value(cached));
+            }
             int utility = min(s1,0,s.getBoard().length*s.getBoard()[0].length, searchDepth - 1);
-            Tuple result = new Tuple(position,utility);
-            cachedComputations.putIfAbsent(s1,result);
-            return result;
+            //The table holds depths up to 127, a deeper result is stored as less deep than it is:
+            cachedComputations.store(s1.hash(), -1, Math.min(searchDepth - 1, 127), utility, TranspositionTable.EXACT);
+            return new Tuple(position,utility);
         }).max(Comparator.comparingInt(t -> t.utilityValue));
-        //Print time:
-        System.out.println("Took: " + timer.check() + " seconds.");
-        //Return result:
         return bestMove.get().move; //Will never return null, since this isn't run if s.legalMoves() returns 0.
     }
 
@@ -102,6 +156,7 @@ public class OthelloAI2 implements IOthelloAI{
         // Defining weights
         definingWeights(s);
         int searchDepth = 8;
+        deadline = null;
 
         Timer timer = new Timer();
         ArrayList<Position> moves = s.legalMoves();
@@ -112,7 +167,8 @@ public class OthelloAI2 implements IOthelloAI{
         ExecutorService es = Executors.newWorkStealingPool();
         for (Position p: moves) {
             Future<Tuple> fut = es.submit(() ->{
-                GameState s1=new GameState(s.getBoard(),s.getPlayerInTurn());
+                GameState s1=new GameState(s);
+                s1.setWeights(weights);
                 s1.insertToken(p);
                 int utility=min(s1,0,s.getBoard().length*s.getBoard()[0].length, searchDepth - 1);
                 return new Tuple(p,utility);
@@ -139,7 +195,25 @@ public class OthelloAI2 implements IOthelloAI{
         return bestMove;
     }
 
+	/**
+	 * Searches the state with the player to maximize in turn. Each call counts the nodes it visits on its own, so 
+	 * calls on different threads (see searchRootInParallel) each poll the deadline every 1024 nodes.
+	 */
 	public int max(GameState s,int alpha,int beta, int searchDepth){
+		return max(s,alpha,beta,searchDepth,new int[1]);
+	}
+
+	/**
+	 * Like max, with the player to minimize in turn.
+	 */
+	public int min(GameState s,int alpha,int beta, int searchDepth){
+		return min(s,alpha,beta,searchDepth,new int[1]);
+	}
+
+	// nodes[0] is the number of nodes visited by the search this node is part of
+	private int max(GameState s,int alpha,int beta, int searchDepth, int[] nodes){
+		if((++nodes[0] & 1023)==0 && deadline!=null)
+			deadline.check();
 		if (s.isFinished())
 			return s.countTokens()[0];
 		if(searchDepth==0)
@@ -147,9 +221,9 @@ public class OthelloAI2 implements IOthelloAI{
 		int v =0;
 		ArrayList<Position> moves = s.legalMoves();
 		for(Position p : moves){
-			GameState s1=new GameState(s.getBoard(),s.getPlayerInTurn());
-			s1.insertToken(p);
-			v=Math.max(v,min(s1,alpha,beta, searchDepth - 1));
+			long undo=s.makeMove(p);
+			v=Math.max(v,min(s,alpha,beta, searchDepth - 1, nodes));
+			s.undoMove(p,undo);
 			if(v>beta)
 				return v;
 			alpha=Math.max(v,alpha);
@@ -157,7 +231,9 @@ public class OthelloAI2 implements IOthelloAI{
 		return v;
 	}
 
-	public int min(GameState s,int alpha,int beta, int searchDepth){
+	private int min(GameState s,int alpha,int beta, int searchDepth, int[] nodes){
+		if((++nodes[0] & 1023)==0 && deadline!=null)
+			deadline.check();
 		if (s.isFinished())
 			return s.countTokens()[0];
 		if(searchDepth==0)
@@ -165,9 +241,9 @@ public class OthelloAI2 implements IOthelloAI{
 		int v =s.getBoard().length*s.getBoard()[0].length;
 		ArrayList<Position> moves = s.legalMoves();
 		for(Position p : moves){
-			GameState s1=new GameState(s.getBoard(),s.getPlayerInTurn());
-			s1.insertToken(p);
-			v=Math.min(v,max(s1,alpha,beta, searchDepth - 1));
+			long undo=s.makeMove(p);
+			v=Math.min(v,max(s,alpha,beta, searchDepth - 1, nodes));
+			s.undoMove(p,undo);
 			if(v<=alpha)
 				return v;
 			beta=Math.min(v,beta);
@@ -176,20 +252,22 @@ public class OthelloAI2 implements IOthelloAI{
 	}
 	
 	public int cutOffEval(GameState s){
-		int value=0;
-		for(int i=0;i<s.getBoard().length;i++){
-			for(int j=0;j<s.getBoard().length;j++){
-				if(s.getBoard()[i][j]==1)
-					value+=weights[i][j];
-				else if (s.getBoard()[i][j]==2)
-					value-=weights[i][j];
-			}
-		}
-		return value;
+		if(s.hasWeights(weights))
+			return s.weightedScore();
+		return kernel.weightedSum(s.getBoard(), weights);
 	}
 
-	private void definingWeights(GameState s) {
-		if (weights == null) {
+	/**
+	 * Uses the tuned weights of the phase of the state if there are tables for its size (see WeightTables), and
+	 * otherwise defines the hand made weights once.
+	 */
+	void definingWeights(GameState s) {
+		int[][] tuned = WeightTables.getDefault().weights(s.getBoard().length, s.countEmpty());
+		if (tuned != null) {
+			if (tuned != weights)
+				cachedComputations.clear();
+			weights = tuned;
+		} else if (weights == null) {
 			int size = s.getBoard().length;
 			System.out.println(size);
 			weights = new int[size][size];
@@ -0,0 +1,35 @@
+/**
+ * Plays the moves of an opening book while the game is in the book, and leaves the other moves to another AI.
+ * Any IOthelloAI can be wrapped this way.
+ */
+public class OthelloAIBook implements IOthelloAI {
+    private final OpeningBook book;
+    private final IOthelloAI fallback;
+
+    /**
+     * Uses the default book (see OpeningBook.getDefault) and OthelloAIPrune.
+     */
+    public OthelloAIBook() {
+        this(OpeningBook.getDefault(), new OthelloAIPrune());
+    }
+
+    public OthelloAIBook(OpeningBook book, IOthelloAI fallback) {
+        this.book = book;
+        this.fallback = fallback;
+    }
+
+    public Position decideMove(GameState s) {
+        Position move = book.lookup(s);
+        if (move != null)
+            return move;
+        return fallback.decideMove(s);
+    }
+
+    public void stop() {
+        fallback.stop();
+    }
+
+    public void setSearchListener(ISearchListener listener) {
+        fallback.setSearchListener(listener);
+    }
+}
@@ -0,0 +1,392 @@
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Monte Carlo tree search (UCT). Each iteration walks down the tree, choosing the child with the best upper
+ * confidence bound, adds the children of the leaf it reaches once the leaf has been visited a few times, plays a
+ * random game from there, and counts its result in every node on the way. The move visited most is played. It
+ * needs no evaluation, and its strength grows with time and threads rather than depth, so it is meant for large
+ * boards, where the alpha-beta engines do not get deep.
+ *
+ * All threads work on one tree (tree parallelism). A node is counted as visited on the way down and its result
+ * added on the way up, so a path taken by one thread looks like a loss to the others until its game has been played
+ * (virtual loss), which spreads the threads over the tree. The visits and the score of a node are one long updated
+ * with atomic adds, and a leaf is expanded by the thread that marks it first, so no locks are needed.
+ *
+ * The nodes are kept in arrays allocated once (the pool), and the children of a node are consecutive. When the pool
+ * is full, the tree stops growing and the search goes on with the nodes it has. The tree is built anew for each move.
+ */
+public class OthelloAIMCTS implements IOthelloAI {
+    public static final int DEFAULT_NODES = 1 << 20;
+    private static final double EXPLORATION = 0.7;  // Weight of the exploration term of the upper confidence bound
+    private static final int EXPAND_VISITS = 2;     // Visits of a leaf before its children are added
+
+    // Values of firstChild besides the index of the first child. The root is node 0, so no child is.
+    private static final int UNEXPANDED = 0;
+    private static final int TERMINAL = -1;
+    private static final int EXPANDING = -2;
+    private static final int PASS = -1;             // Move of a child in which the player in turn passes
+    private static final long VISIT = 1L << 32;     // A visit in stats; the low 32 bits are the score
+
+    private final long timeLimit;                   // Milliseconds the search may spend on one move
+    private final int threads;
+    private final ExecutorService pool;
+    private final EndgameSolver endgameSolver = new EndgameSolver();
+    private final SplittableRandom random = new SplittableRandom();
+    private volatile Deadline moveDeadline;         // Deadline of the move being decided, for stop()
+
+    // The node pool
+    private final int capacity;
+    private final AtomicIntegerArray firstChild;    // Index of the first child, or one of the values above
+    private final int[] childCount;
+    private final int[] move;                       // Place (col*size+row) of the move into the node, or PASS
+    private final AtomicLongArray stats;            // Visits << 32 | score in half points of the player who moved
+    private final AtomicInteger nextNode = new AtomicInteger();
+    private volatile boolean full;
+
+    private Position[] positions;                   // Positions by place, for the size of the last search
+    private long playouts;                          // Games played in the last search
+
+    public OthelloAIMCTS() {
+        this(OthelloAIPrune.DEFAULT_TIME_LIMIT, Runtime.getRuntime().availableProcessors(), DEFAULT_NODES);
+    }
+
+    /**
+     * @param timeLimit The time in milliseconds the AI may spend on deciding a move
+     */
+    public OthelloAIMCTS(long timeLimit) {
+        this(timeLimit, Runtime.getRuntime().availableProcessors(), DEFAULT_NODES);
+    }
+
+    /**
+     * @param timeLimit The time in milliseconds the AI may spend on deciding a move
+     * @param threads The number of threads to search with
+     * @param nodes The number of nodes the tree may have
+     */
+    public OthelloAIMCTS(long timeLimit, int threads, int nodes) {
+        this.timeLimit = timeLimit;
+        this.threads = threads;
+        capacity = nodes;
+        firstChild = new AtomicIntegerArray(nodes);
+        childCount = new int[nodes];
+        move = new int[nodes];
+        stats = new AtomicLongArray(nodes);
+        pool = Executors.newFixedThreadPool(threads, daemonThreads());
+    }
+
+    public Position decideMove(GameState s) {
+        Timer timer = new Timer();
+        ArrayList<Position> moves = s.legalMoves();
+        System.out.println("Number of available moves: " + moves.size());
+        if (moves.isEmpty())
+            return new Position(-1, -1);
+        Deadline deadline = new Deadline(timeLimit);
+        moveDeadline = deadline;
+
+        Position booked = OpeningBook.getDefault().lookup(s);
+        if (booked != null) {
+            System.out.println("Book move. Took: " + timer.check() + " seconds.");
+            return booked;
+        }
+
+        // Near the end, solve the game with half of the time, and search with the rest if that is not enough
+        if (EndgameSolver.applies(s)) {
+            Position solved = endgameSolver.solveForEngine(s, new Deadline(timeLimit / 2, deadline));
+            if (solved != null) {
+                System.out.println("Solved: " + endgameSolver.getScore() + ". Took: " + timer.check() + " seconds.");
+                return solved;
+            }
+        }
+
+        Position best = search(s, deadline, Long.MAX_VALUE);
+        System.out.printf("Playouts: %d, %.0f per second. Nodes: %d. Took: %s seconds.%n", playouts,
+                playouts / timer.check(), Math.min(nextNode.get(), capacity), timer.check());
+        return best;
+    }
+
+    /**
+     * Makes the search of the move being decided return the move visited most so far.
+     */
+    public void stop() {
+        Deadline d = moveDeadline;
+        if (d != null)
+            d.stop();
+    }
+
+    /**
+     * Searches with all threads until the deadline has expired or about maxPlayouts games have been played, and
+     * returns the move visited most. The state should have a legal move.
+     */
+    Position search(GameState s, Deadline deadline, long maxPlayouts) {
+        int size = s.getBoard().length;
+        if (positions == null || positions.length != size * size) {
+            positions = new Position[size * size];
+            for (int i = 0; i < positions.length; i++)
+                positions[i] = new Position(i / size, i % size);
+        }
+        nextNode.set(1);
+        firstChild.set(0, UNEXPANDED);
+        stats.set(0, 0);
+        full = false;
+        new Worker(s, random.split()).expand(0);
+
+        ArrayList<Future<Long>> results = new ArrayList<>();
+        long perThread = Math.max(1, maxPlayouts / threads);
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker(s, random.split());
+            results.add(pool.submit(() -> worker.run(deadline, perThread)));
+        }
+        playouts = 0;
+        for (Future<Long> result : results)
+            playouts += get(result);
+
+        int first = firstChild.get(0);
+        int best = first;
+        for (int i = first; i < first + childCount[0]; i++) {
+            if (stats.get(i) >>> 32 > stats.get(best) >>> 32)
+                best = i;
+        }
+        return positions[move[best]];
+    }
+
+    /**
+     * Returns the number of games played in the last search.
+     */
+    long getPlayouts() {
+        return playouts;
+    }
+
+    /**
+     * The state of one search thread: a copy of the root state that is moved along the path of each iteration and
+     * moved back afterwards, arrays for the path, and a Playouts for the random games, so an iteration allocates
+     * nothing.
+     */
+    private class Worker {
+        private final GameState state;
+        private final Playouts games;
+        private final int size;
+        private final int[] path;       // The nodes below the root on the current path
+        private final int[] movers;     // The player who made the move into each node of the path
+        private final long[] undo;      // The records of makeMove for the path
+        private final int[] legal;      // Legal places of the state
+
+        Worker(GameState s, SplittableRandom random) {
+            state = new GameState(s);
+            size = s.getBoard().length;
+            games = new Playouts(size, false, random);
+            int plies = 2 * size * size + 2;
+            path = new int[plies];
+            movers = new int[plies];
+            undo = new long[plies];
+            legal = new int[size * size + 1];
+        }
+
+        long run(Deadline deadline, long maxPlayouts) {
+            long count = 0;
+            while (count < maxPlayouts && ((count & 15) != 0 || !deadline.expired())) {
+                iterate();
+                count++;
+            }
+            return count;
+        }
+
+        private void iterate() {
+            int node = 0;
+            int depth = 0;
+            stats.getAndAdd(0, VISIT);
+            int result;
+            while (true) {
+                int first = firstChild.get(node);
+                if (first == UNEXPANDED && !full && stats.get(node) >>> 32 >= EXPAND_VISITS
+                        && firstChild.compareAndSet(node, UNEXPANDED, EXPANDING))
+                    first = expand(node);
+                if (first > 0) {
+                    int child = select(node, first);
+                    movers[depth] = state.getPlayerInTurn();
+                    undo[depth] = play(move[child]);
+                    path[depth++] = child;
+                    stats.getAndAdd(child, VISIT);
+                    node = child;
+                    continue;
+                }
+                result = first == TERMINAL ? result(state.countTokens()) : Integer.signum(games.play(state)) + 1;
+                break;
+            }
+            for (int i = depth - 1; i >= 0; i--) {
+                stats.getAndAdd(path[i], movers[i] == 1 ? result : 2 - result);
+                takeBack(move[path[i]], undo[i]);
+            }
+        }
+
+        /**
+         * Adds the children of the node, which should be marked EXPANDING by this thread, for the state, and returns
+         * the new value of firstChild.
+         */
+        int expand(int node) {
+            int count = legalPlaces(legal);
+            if (count == 0) {
+                state.changePlayer();
+                boolean opponentMoves = legalPlaces(legal) > 0;
+                state.changePlayer();
+                if (!opponentMoves) {
+                    firstChild.set(node, TERMINAL);
+                    return TERMINAL;
+                }
+                legal[0] = PASS;
+                count = 1;
+            }
+            int first = nextNode.getAndAdd(count);
+            if (first + count > capacity) {
+                full = true;
+                firstChild.set(node, UNEXPANDED);
+                return UNEXPANDED;
+            }
+            for (int i = 0; i < count; i++) {
+                move[first + i] = legal[i];
+                firstChild.setPlain(first + i, UNEXPANDED);
+                stats.setPlain(first + i, 0);
+            }
+            childCount[node] = count;
+            firstChild.set(node, first);    // Publishes the children to the other threads
+            return first;
+        }
+
+        // Returns the child with the highest upper confidence bound, or the first child not visited yet
+        private int select(int node, int first) {
+            double logVisits = Math.log(stats.get(node) >>> 32);
+            int best = first;
+            double bestBound = Double.NEGATIVE_INFINITY;
+            for (int i = first; i < first + childCount[node]; i++) {
+                long childStats = stats.get(i);
+                long visits = childStats >>> 32;
+                if (visits == 0)
+                    return i;
+                double bound = (int) childStats / (2.0 * visits) + EXPLORATION * Math.sqrt(logVisits / visits);
+                if (bound > bestBound) {
+                    best = i;
+                    bestBound = bound;
+                }
+            }
+            return best;
+        }
+
+        // Puts the legal places of the player in turn into places and returns their number
+        private int legalPlaces(int[] places) {
+            if (state.isBitboard()) {
+                long moves = BitBoard.moves(state.own(), state.opponent());
+                int count = 0;
+                while (moves != 0) {
+                    places[count++] = Long.numberOfTrailingZeros(moves);    // The square is the place on 8x8
+                    moves &= moves - 1;
+                }
+                return count;
+            }
+            int[][] board = state.getBoard();
+            int count = 0;
+            for (int place = 0; place < positions.length; place++) {
+                if (board[place / size][place % size] == 0 && captures(positions[place]))
+                    places[count++] = place;
+            }
+            return count;
+        }
+
+        private boolean captures(Position p) {
+            for (int deltaX = -1; deltaX <= 1; deltaX++) {
+                for (int deltaY = -1; deltaY <= 1; deltaY++) {
+                    if (state.captureInDirection(p, deltaX, deltaY) > 0)
+                        return true;
+                }
+            }
+            return false;
+        }
+
+        private long play(int place) {
+            if (place == PASS) {
+                state.changePlayer();
+                return 0;
+            }
+            return state.makeMove(positions[place]);
+        }
+
+        private void takeBack(int place, long record) {
+            if (place == PASS)
+                state.changePlayer();
+            else
+                state.undoMove(positions[place], record);
+        }
+    }
+
+    private static int result(int[] tokens) {
+        return Integer.compare(tokens[0], tokens[1]) + 1;
+    }
+
+    private static <T> T get(Future<T> result) {
+        try {
+            return result.get();
+        } catch (Exception e) {
+            throw new IllegalStateException("Search thread failed", e);
+        }
+    }
+
+    private static ThreadFactory daemonThreads() {
+        return r -> {
+            Thread t = new Thread(r, "OthelloAIMCTS search");
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Class used for timing in seconds.
+     */
+    public class Timer {
+        private long start;
+
+        public Timer() {
+            start = System.nanoTime();
+        }
+
+        public double check() {
+            return (System.nanoTime() - start) / 1e9;
+        }
+    }
+
+    /**
+     * Benchmark of the playouts per second from 1 thread to the given number of threads, searching the start
+     * position of the given board size for a second.
+     * Usage: java OthelloAIMCTS [maxThreads] [size]
+     */
+    public static void main(String[] args) {
+        int maxThreads = args.length >= 1 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int size = args.length >= 2 ? Integer.parseInt(args[1]) : 8;
+        GameState s = new GameState(size, 1);
+
+        ArrayList<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < maxThreads; threads *= 2)
+            threadCounts.add(threads);
+        threadCounts.add(maxThreads);
+
+        // Warm up the JIT compiler before measuring
+        new OthelloAIMCTS(0, 1, DEFAULT_NODES).search(s, new Deadline(1000), Long.MAX_VALUE);
+
+        double basePlayouts = 0;
+        System.out.println("threads\tplayouts/s\tspeedup");
+        for (int threads : threadCounts) {
+            OthelloAIMCTS ai = new OthelloAIMCTS(0, threads, DEFAULT_NODES);
+            long start = System.nanoTime();
+            ai.search(s, new Deadline(1000), Long.MAX_VALUE);
+            double perSecond = ai.getPlayouts() / ((System.nanoTime() - start) / 1e9);
+            ai.pool.shutdown();
+            if (threads == 1)
+                basePlayouts = perSecond;
+            System.out.printf("%d\t%.0f\t%.2f%n", threads, perSecond, perSecond / basePlayouts);
+        }
+    }
+}
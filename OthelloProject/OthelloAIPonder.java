@@ -0,0 +1,9 @@
+/**
+ * OthelloAIPrune with pondering on (see OthelloAIPrune.setPondering), so it can be chosen by its class name.
+ */
+public class OthelloAIPonder extends OthelloAIPrune {
+
+    public OthelloAIPonder() {
+        setPondering(true);
+    }
+}
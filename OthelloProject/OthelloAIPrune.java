@@ -1,104 +1,436 @@
 import java.util.ArrayList;
 
 /**
- * Minimax implementation with Alpha-Beta pruning and cut-off evaluation
+ * Minimax implementation with Alpha-Beta pruning and cut-off evaluation. The search is written as negamax: every
+ * node maximizes the value for the player in turn, so the AI plays either colour.
  */
 public class OthelloAIPrune implements IOthelloAI {
     public int[][] weights = null;
+    private final BoardKernel kernel = BoardKernel.get();
 
-    // fields that allows us to keep/store the alpha/beta values so that they can be remembered
-    // throughout the game and not only one move (ply)
-    private int ALPHA = Integer.MIN_VALUE;
-    private int BETA = Integer.MAX_VALUE;
+    public static final long DEFAULT_TIME_LIMIT = 2000;
 
-    private final int SEARCH_DEPTH = 10;
+    private final long timeLimit;   // Milliseconds the search may spend on one move
+    private Deadline deadline;      // Deadline of the move being searched
+    private volatile Deadline moveDeadline;     // Deadline of the move being decided, for stop()
+    private volatile ISearchListener listener;  // Told of every iteration finished for the move, or null
+    private long nodes;             // Nodes visited, also used to poll the deadline every 1024 nodes
+    private int rootDepth;          // Depth of the iteration being searched, to tell the ply of a node
+    private int completedDepth;     // Depth of the deepest iteration finished for the current move
+
+    // Results of the states searched. The move ordering tries their best moves first, and the search
+    // returns their values right away if they were searched deep enough.
+    private final TranspositionTable table;
+    private IMoveOrdering moveOrdering;
+    private static final int NOT_STORED = Integer.MIN_VALUE;
+    private static final int INFINITY = Integer.MAX_VALUE;    // Above any value, and -INFINITY does not overflow
+    private static final int TOKEN_VALUE = 1 << 16;           // Value of a token at the end, above any weighted score
+
+    private EndgameSolver endgameSolver;    // Created for the first endgame, as its tables take a few MB
+    private final SearchStats stats = new SearchStats("OthelloAIPrune");
+
+    // Results of deep searches and solved positions of earlier games, possibly of other processes. A stored move
+    // is played right away if it was solved or searched deeper than this search is likely to get.
+    private final PositionStore store = PositionStore.getDefault();
+    private static final int STORE_MIN_DEPTH = 10;      // Only results of at least this depth are stored
+
+    // Pondering: after deciding a move, the AI searches the position after the reply it predicts on a background
+    // thread until the next call of decideMove. If that is the position, the search goes on from the depth reached
+    // while pondering; otherwise the pondering is stopped, and only its table entries are left.
+    private static final int PONDER_TIME_FACTOR = 10;  // Pondering stops after this many time limits at most
+    private boolean pondering;
+    private Thread ponderThread;
+    private Deadline ponderDeadline;
+    private GameState ponderState;                      // The position being pondered
+    private Position ponderMove;                        // The best move found for it, once the thread has ended
+
+    public OthelloAIPrune() {
+        this(DEFAULT_TIME_LIMIT);
+    }
+
+    /**
+     * @param timeLimit The time in milliseconds the AI may spend on deciding a move
+     */
+    public OthelloAIPrune(long timeLimit) {
+        this(timeLimit, new TranspositionTable(20));
+    }
+
+    /**
+     * Creates an AI that stores its results in the given table, which may be shared with other AIs
+     * searching at the same time (see OthelloAISMP).
+     */
+    OthelloAIPrune(long timeLimit, TranspositionTable table) {
+        this.timeLimit = timeLimit;
+        this.table = table;
+    }
 
     public Position decideMove(GameState s) {
         return decideMovePrune(s);
     }
 
+    /**
+     * Makes the search of the move being decided return the move of the deepest iteration finished so far.
+     */
+    public void stop() {
+        Deadline d = moveDeadline;
+        if (d != null)
+            d.stop();
+    }
+
+    public void setSearchListener(ISearchListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Turns pondering on or off. With pondering on, the AI keeps searching on a thread of its own while the opponent
+     * decides, so it should have a processor to itself.
+     */
+    public void setPondering(boolean pondering) {
+        this.pondering = pondering;
+        if (!pondering)
+            stopPondering();
+    }
+
+    /**
+     * Stops the pondering thread, if any, e.g. when the game is over.
+     */
+    public void stopPondering() {
+        if (ponderThread == null)
+            return;
+        ponderDeadline.stop();
+        try {
+            ponderThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ponderThread = null;
+    }
+
+    /**
+     * Replaces the move ordering. By default a MoveOrdering is created for the first move.
+     */
+    public void setMoveOrdering(IMoveOrdering moveOrdering) {
+        this.moveOrdering = moveOrdering;
+    }
+
 
     public Position decideMovePrune(GameState s) {
+        GameState pondered = ponderState;
+        stopPondering();
         // Define weights
         definingWeights(s);
-        int searchDepth = SEARCH_DEPTH;
+        boolean ponderHit = ponderMove != null && s.equals(pondered);
+        int previousDepth = completedDepth;
+        if (!ponderHit)
+            table.newSearch();
+
+        Position best = decide(s, ponderHit, previousDepth);
+        if (pondering)
+            startPondering(s, best);
+        return best;
+    }
 
+    /**
+     * @param ponderHit Whether s was pondered
+     * @param previousDepth The depth of the last search, which is the pondering if s was pondered
+     */
+    private Position decide(GameState s, boolean ponderHit, int previousDepth) {
         Timer timer = new Timer();
         ArrayList<Position> moves = s.legalMoves();
         System.out.println("Number of available moves: " + moves.size());
+        Deadline deadline = new Deadline(timeLimit);
+        moveDeadline = deadline;
+
+        Position booked = OpeningBook.getDefault().lookup(s);
+        if (booked != null) {
+            System.out.println("Book move. Took: " + timer.check() + " seconds.");
+            return booked;
+        }
+
+        long stored = store.probe(s);
+        int storedPlace = TranspositionTable.move(stored);
+        int size = s.getBoard().length;
+        Position storedMove = stored == 0 ? null : new Position(storedPlace / size, storedPlace % size);
+        if (storedMove != null && moves.contains(storedMove)) {
+            int storedDepth = TranspositionTable.depth(stored);
+            if (storedDepth == PositionStore.SOLVED || storedDepth > Math.max(STORE_MIN_DEPTH, previousDepth)) {
+                System.out.println("Stored move of depth " + storedDepth + ". Took: " + timer.check() + " seconds.");
+                return storedMove;
+            }
+            // Otherwise the search tries it first
+            table.store(s.hash(), storedPlace, 0, TranspositionTable.value(stored), TranspositionTable.bound(stored));
+        }
+
+        // Near the end, solve the game with half of the time, and search with the rest if that is not enough
+        if (EndgameSolver.applies(s)) {
+            if (endgameSolver == null)
+                endgameSolver = new EndgameSolver();
+            Position solved = endgameSolver.solveForEngine(s, new Deadline(timeLimit / 2, deadline));
+            if (solved != null) {
+                int score = endgameSolver.getScore();
+                System.out.println("Solved: " + score + ". Took: " + timer.check() + " seconds.");
+                // A win/loss/draw score only tells a lower bound, unless it is a draw
+                store.store(s, place(s, solved), PositionStore.SOLVED, score,
+                        EndgameSolver.solvesExactly(s) || score == 0 ? TranspositionTable.EXACT : TranspositionTable.LOWER);
+                return solved;
+            }
+        }
+
+        Position best;
+        if (ponderHit) {
+            // Go on from the depth reached while pondering, whose results are in the table
+            best = iterate(s, moves, deadline, previousDepth + 1, Integer.MAX_VALUE);
+            if (completedDepth == 0)
+                best = ponderMove;
+            System.out.println("Ponder hit at depth " + previousDepth + ".");
+            completedDepth = Math.max(completedDepth, previousDepth);
+        } else {
+            best = iterate(s, moves, deadline, 1, Integer.MAX_VALUE);
+        }
+        System.out.println("Depth: " + completedDepth + ". Took: " + timer.check() + " seconds.");
+        if (completedDepth >= STORE_MIN_DEPTH) {
+            long root = table.probe(s.hash());
+            store.store(s, place(s, best), completedDepth, TranspositionTable.value(root), TranspositionTable.EXACT);
+        }
+        if (SearchStats.ENABLED)
+            System.out.println(stats);
+        return best;
+    }
+
+    /**
+     * Starts searching the position after the given move and the reply predicted for it: the best move stored in
+     * the table, or else the first move by the move ordering. If the opponent has to pass, the position after the
+     * pass is searched. Nothing is searched if the game is over by then.
+     */
+    private void startPondering(GameState s, Position move) {
+        ponderMove = null;
+        ponderState = null;
+        GameState state = new GameState(s);
+        state.insertToken(move);
+        ArrayList<Position> replies = state.legalMoves();
+        if (replies.isEmpty()) {
+            state.changePlayer();
+        } else {
+            int size = state.getBoard().length;
+            int stored = TranspositionTable.move(table.probe(state.hash()));
+            Position reply = stored >= 0 ? new Position(stored / size, stored % size) : null;
+            if (reply == null || !replies.contains(reply)) {
+                if (moveOrdering != null)
+                    moveOrdering.order(state, replies, 0);
+                reply = replies.get(0);
+            }
+            state.insertToken(reply);
+        }
+        ArrayList<Position> moves = state.legalMoves();
+        if (moves.isEmpty())
+            return;
+
+        table.newSearch();
+        GameState ponderRoot = state;
+        ponderState = state;
+        ponderDeadline = new Deadline(PONDER_TIME_FACTOR * timeLimit);
+        ponderThread = new Thread(() -> ponderMove = iterate(ponderRoot, moves, ponderDeadline, 1, Integer.MAX_VALUE),
+                "OthelloAIPrune ponder");
+        ponderThread.setDaemon(true);
+        ponderThread.start();
+    }
+
+    /**
+     * Iterative deepening: searches one ply deeper at a time, starting at startDepth, and returns the move of the 
+     * deepest search that finished before the deadline (or the first move if none did). Stops at maxDepth or at
+     * the number of empty places, as there is no point in searching deeper. The weights should be defined.
+     */
+    Position iterate(GameState s, ArrayList<Position> moves, Deadline deadline, int startDepth, int maxDepth) {
+        if (moveOrdering == null)
+            moveOrdering = new MoveOrdering(table, weights);
+        moveOrdering.setWeights(weights);
+        moveOrdering.newSearch();
+        this.deadline = deadline;
+        completedDepth = 0;
 
+        GameState state = new GameState(s);
+        state.setWeights(weights);
+        ArrayList<Position> rootMoves = new ArrayList<>(moves);
+        Position best = rootMoves.get(0);
+        int depth = startDepth;
+        if (SearchStats.ENABLED)
+            stats.startSearch();
+        try {
+            while (depth <= Math.min(maxDepth, s.countEmpty())) {
+                if (SearchStats.ENABLED)
+                    stats.startIteration(depth);
+                best = searchRoot(state, rootMoves, depth);
+                completedDepth = depth;
+                ISearchListener listener = this.listener;
+                if (listener != null && deadline != ponderDeadline)
+                    listener.progress(best, depth);
+                if (SearchStats.ENABLED)
+                    stats.endIteration(depth);
+                depth++;
+            }
+        } catch (Deadline.Expired e) {
+            // The unfinished search is discarded
+        }
+        if (SearchStats.ENABLED)
+            stats.endSearch();
+        return best;
+    }
+
+    /**
+     * Returns the depth of the deepest iteration finished for the last move.
+     */
+    int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    /**
+     * Returns the statistics of the last move. They are only counted if SearchStats.ENABLED.
+     */
+    public SearchStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Returns the number of nodes visited so far.
+     */
+    long getNodes() {
+        return nodes;
+    }
+
+    private Position searchRoot(GameState state, ArrayList<Position> moves, int searchDepth) {
+        rootDepth = searchDepth;
+        moveOrdering.order(state, moves, 0);
         Position best = moves.get(0);
-        int max = 0;
+        int max = -INFINITY;
         for (Position p : moves) {
-            GameState s1 = new GameState(s.getBoard(), s.getPlayerInTurn());
-            s1.insertToken(p);
-            int utility = min(s1, ALPHA, BETA, searchDepth - 1);
+            long undo = state.makeMove(p);
+            int utility = -search(state, -INFINITY, -max, searchDepth - 1);
+            state.undoMove(p, undo);
             if (max < utility) {
                 max = utility;
                 best = p;
             }
         }
-        System.out.println("Took: " + timer.check() + " seconds.");
+        table.store(state.hash(), place(state, best), searchDepth, max, TranspositionTable.EXACT);
         return best;
     }
 
-
-    public int max(GameState s, int alpha, int beta, int searchDepth) {
-        if (s.isFinished())
-            return s.countTokens()[0];
-        if (searchDepth == 0)
-            return cutOffEval(s);
-        int v = 0;
+    /**
+     * Negamax search with alpha-beta pruning: returns the value of the state for the player in turn, so the
+     * values of the table mean the same whichever colour the AI plays.
+     */
+    public int search(GameState s, int alpha, int beta, int searchDepth) {
+        if ((++nodes & 1023) == 0)
+            deadline.check();
+        if (SearchStats.ENABLED)
+            stats.node();
+        if (s.isFinished()) {
+            if (SearchStats.ENABLED)
+                stats.leaf();
+            return finalScore(s);
+        }
+        if (searchDepth == 0) {
+            if (SearchStats.ENABLED)
+                stats.leaf();
+            return s.getPlayerInTurn() == 1 ? cutOffEval(s) : -cutOffEval(s);
+        }
+        int stored = storedValue(s, alpha, beta, searchDepth);
+        if (stored != NOT_STORED)
+            return stored;
         ArrayList<Position> moves = s.legalMoves();
-        for (Position p : moves) {
-            GameState s1 = new GameState(s.getBoard(), s.getPlayerInTurn());
-            s1.insertToken(p);
-            v = Math.max(v, min(s1, alpha, beta, searchDepth - 1));
-            if (v > beta)
+        if (moves.isEmpty()) { // The player has to pass
+            s.changePlayer();
+            int v = -search(s, -beta, -alpha, searchDepth - 1);
+            s.changePlayer();
+            return v;
+        }
+        int ply = rootDepth - searchDepth;
+        int alphaAtEntry = alpha;
+        int v = -INFINITY;
+        Position best = null;
+        moveOrdering.order(s, moves, ply);
+        if (SearchStats.ENABLED)
+            stats.expanded();
+        for (int i = 0; i < moves.size(); i++) {
+            Position p = moves.get(i);
+            long undo = s.makeMove(p);
+            int utility = -search(s, -beta, -alpha, searchDepth - 1);
+            s.undoMove(p, undo);
+            if (utility > v) {
+                v = utility;
+                best = p;
+            }
+            if (v >= beta) {
+                if (SearchStats.ENABLED)
+                    stats.cutoff(i);
+                moveOrdering.cutoff(p, ply, searchDepth);
+                table.store(s.hash(), place(s, p), searchDepth, v, TranspositionTable.LOWER);
                 return v;
+            }
             alpha = Math.max(v, alpha);
-            //TODO: this maybe is redundant, but I just wanted to be on the safe side :)
-            ALPHA = alpha;
         }
-        ALPHA = alpha;
+        table.store(s.hash(), place(s, best), searchDepth, v,
+                v <= alphaAtEntry ? TranspositionTable.UPPER : TranspositionTable.EXACT);
         return v;
     }
 
-    public int min(GameState s, int alpha, int beta, int searchDepth) {
-        if (s.isFinished())
-            return s.countTokens()[0];
-        if (searchDepth == 0)
-            return cutOffEval(s);
-        int v = s.getBoard().length * s.getBoard()[0].length;
-        ArrayList<Position> moves = s.legalMoves();
-        for (Position p : moves) {
-            GameState s1 = new GameState(s.getBoard(), s.getPlayerInTurn());
-            s1.insertToken(p);
-            v = Math.min(v, max(s1, alpha, beta, searchDepth - 1));
-            if (v <= alpha)
-                return v;
-            beta = Math.min(v, beta);
-            BETA = beta;
+    /**
+     * Returns the value of a finished game for the player in turn: the difference in tokens, scaled so that a win
+     * is worth more than any weighted score. The 4096 places of a 64x64 board scale to at most 2^28, so the
+     * values do not overflow.
+     */
+    private static int finalScore(GameState s) {
+        int[] tokens = s.countTokens();
+        int difference = tokens[0] - tokens[1];
+        return (s.getPlayerInTurn() == 1 ? difference : -difference) * TOKEN_VALUE;
+    }
+
+    /**
+     * Returns the value stored in the table for the state if it was searched at least as deep and the value is 
+     * exact or a bound outside the window (alpha, beta), and NOT_STORED otherwise.
+     */
+    private int storedValue(GameState s, int alpha, int beta, int searchDepth) {
+        long entry = table.probe(s.hash());
+        if (entry == 0 || TranspositionTable.depth(entry) < searchDepth) {
+            if (SearchStats.ENABLED)
+                stats.probe(false);
+            return NOT_STORED;
         }
-        BETA = beta;
-        return v;
+        int value = TranspositionTable.value(entry);
+        int bound = TranspositionTable.bound(entry);
+        boolean usable = bound == TranspositionTable.EXACT
+                || (bound == TranspositionTable.LOWER && value >= beta)
+                || (bound == TranspositionTable.UPPER && value <= alpha);
+        if (SearchStats.ENABLED)
+            stats.probe(usable);
+        return usable ? value : NOT_STORED;
+    }
+
+    /**
+     * Returns the place of the given position as col*size+row, as used by the transposition table.
+     */
+    private static int place(GameState s, Position p) {
+        return p.col * s.getBoard().length + p.row;
     }
 
+    /**
+     * Returns the weighted score of the board for black. It is kept up to date by states that carry the weights.
+     */
     public int cutOffEval(GameState s) {
-        int value = 0;
-        for (int i = 0; i < s.getBoard().length; i++) {
-            for (int j = 0; j < s.getBoard().length; j++) {
-                if (s.getBoard()[i][j] == 1)
-                    value += weights[i][j];
-                else if (s.getBoard()[i][j] == 2)
-                    value -= weights[i][j];
-            }
-        }
-        return value;
+        if (s.hasWeights(weights))
+            return s.weightedScore();
+        return kernel.weightedSum(s.getBoard(), weights);
     }
 
-    private void definingWeights(GameState s) {
-        if (weights == null) {
+    /**
+     * Uses the tuned weights of the phase of the state if there are tables for its size (see WeightTables), and
+     * otherwise defines the hand made weights once.
+     */
+    void definingWeights(GameState s) {
+        int[][] tuned = WeightTables.getDefault().weights(s.getBoard().length, s.countEmpty());
+        if (tuned != null) {
+            weights = tuned;
+        } else if (weights == null) {
             int size = s.getBoard().length;
             System.out.println(size);
             weights = new int[size][size];
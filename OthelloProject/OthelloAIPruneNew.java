@@ -5,32 +5,107 @@ import java.util.ArrayList;
  */
 public class OthelloAIPruneNew implements IOthelloAI {
     public int[][] weights = null;
+    private final BoardKernel kernel = BoardKernel.get();
+    private final PatternEval patterns = PatternEval.getDefault();   // Used instead of the weights on 8x8 boards
 
-    // fields that allows us to keep/store the alpha/beta values so that they can be remembered
-    // throughout the game and not only one move (ply)
-    private int ALPHA = Integer.MIN_VALUE;
-    private int BETA = Integer.MAX_VALUE;
+    public static final long DEFAULT_TIME_LIMIT = 2000;
+    private static final int TOKEN_VALUE = 1 << 16;   // Value of a token at the end, above any evaluation
 
-    private final int SEARCH_DEPTH = 10;
+    private final long timeLimit;   // Milliseconds the search may spend on one move
+    private volatile Deadline deadline;         // Deadline of the move being searched
+    private volatile ISearchListener listener;  // Told of every iteration finished for the move, or null
+    private int nodes;              // Nodes visited, used to poll the deadline every 1024 nodes
+
+    private final EndgameSolver endgameSolver = new EndgameSolver();
+    private final SearchStats stats = new SearchStats("OthelloAIPruneNew");
+
+    public OthelloAIPruneNew() {
+        this(DEFAULT_TIME_LIMIT);
+    }
+
+    /**
+     * @param timeLimit The time in milliseconds the AI may spend on deciding a move
+     */
+    public OthelloAIPruneNew(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
 
     public Position decideMove(GameState s) {
         return decideMovePrune(s);
     }
 
+    /**
+     * Makes the search of the move being decided return the move of the deepest iteration finished so far.
+     */
+    public void stop() {
+        Deadline d = deadline;
+        if (d != null)
+            d.stop();
+    }
+
+    public void setSearchListener(ISearchListener listener) {
+        this.listener = listener;
+    }
+
 
     public Position decideMovePrune(GameState s) {
         // Define weights
         definingWeights(s);
-        int searchDepth = SEARCH_DEPTH;
 
+        deadline = new Deadline(timeLimit);
         ArrayList<Position> moves = s.legalMoves();
 
+        // Near the end, solve the game with half of the time, and search with the rest if that is not enough
+        if (EndgameSolver.applies(s)) {
+            Position solved = endgameSolver.solveForEngine(s, new Deadline(timeLimit / 2, deadline));
+            if (solved != null)
+                return solved;
+        }
+
+        // Iterative deepening: search one ply deeper at a time and keep the move of the deepest search that
+        // finished before the deadline. There is no point in searching deeper than the number of empty places.
+        GameState state = new GameState(s);
+        state.setWeights(weights);
         Position best = moves.get(0);
-        int max = 0;
+        int depth = 0;
+        if (SearchStats.ENABLED)
+            stats.startSearch();
+        try {
+            while (depth < s.countEmpty()) {
+                if (SearchStats.ENABLED)
+                    stats.startIteration(depth + 1);
+                best = searchRoot(state, moves, depth + 1);
+                depth++;
+                ISearchListener listener = this.listener;
+                if (listener != null)
+                    listener.progress(best, depth);
+                if (SearchStats.ENABLED)
+                    stats.endIteration(depth);
+            }
+        } catch (Deadline.Expired e) {
+            // The unfinished search is discarded
+        }
+        if (SearchStats.ENABLED) {
+            stats.endSearch();
+            System.out.println(stats);
+        }
+        return best;
+    }
+
+    /**
+     * Returns the statistics of the last move. They are only counted if SearchStats.ENABLED.
+     */
+    public SearchStats getStats() {
+        return stats;
+    }
+
+    private Position searchRoot(GameState state, ArrayList<Position> moves, int searchDepth) {
+        Position best = moves.get(0);
+        int max = Integer.MIN_VALUE;
         for (Position p : moves) {
-            GameState s1 = new GameState(s.getBoard(), s.getPlayerInTurn());
-            s1.insertToken(p);
-            int utility = min(s1, ALPHA, BETA, searchDepth - 1);
+            long undo = state.makeMove(p);
+            int utility = min(state, max, Integer.MAX_VALUE, searchDepth - 1);
+            state.undoMove(p, undo);
             if (max < utility) {
                 max = utility;
                 best = p;
@@ -41,60 +116,113 @@ public class OthelloAIPruneNew implements IOthelloAI {
 
 
     public int max(GameState s, int alpha, int beta, int searchDepth) {
-        if (s.isFinished())
-            return s.countTokens()[0];
-        if (searchDepth == 0)
+        if ((++nodes & 1023) == 0)
+            deadline.check();
+        if (SearchStats.ENABLED)
+            stats.node();
+        if (s.isFinished()) {
+            if (SearchStats.ENABLED)
+                stats.leaf();
+            return finalScore(s);
+        }
+        if (searchDepth == 0) {
+            if (SearchStats.ENABLED)
+                stats.leaf();
             return cutOffEval(s);
-        int v = 0;
+        }
         ArrayList<Position> moves = s.legalMoves();
-        for (Position p : moves) {
-            GameState s1 = new GameState(s.getBoard(), s.getPlayerInTurn());
-            s1.insertToken(p);
-            v = Math.max(v, min(s1, alpha, beta, searchDepth - 1));
-            if (v > beta)
+        if (moves.isEmpty()) { // The player has to pass
+            s.changePlayer();
+            int v = min(s, alpha, beta, searchDepth - 1);
+            s.changePlayer();
+            return v;
+        }
+        int v = Integer.MIN_VALUE;
+        if (SearchStats.ENABLED)
+            stats.expanded();
+        for (int i = 0; i < moves.size(); i++) {
+            Position p = moves.get(i);
+            long undo = s.makeMove(p);
+            v = Math.max(v, min(s, alpha, beta, searchDepth - 1));
+            s.undoMove(p, undo);
+            if (v > beta) {
+                if (SearchStats.ENABLED)
+                    stats.cutoff(i);
                 return v;
+            }
             alpha = Math.max(v, alpha);
-            ALPHA = alpha;
         }
-        ALPHA = alpha;
         return v;
     }
 
     public int min(GameState s, int alpha, int beta, int searchDepth) {
-        if (s.isFinished())
-            return s.countTokens()[0];
-        if (searchDepth == 0)
+        if ((++nodes & 1023) == 0)
+            deadline.check();
+        if (SearchStats.ENABLED)
+            stats.node();
+        if (s.isFinished()) {
+            if (SearchStats.ENABLED)
+                stats.leaf();
+            return finalScore(s);
+        }
+        if (searchDepth == 0) {
+            if (SearchStats.ENABLED)
+                stats.leaf();
             return cutOffEval(s);
-        int v = s.getBoard().length * s.getBoard()[0].length;
+        }
         ArrayList<Position> moves = s.legalMoves();
-        for (Position p : moves) {
-            GameState s1 = new GameState(s.getBoard(), s.getPlayerInTurn());
-            s1.insertToken(p);
-            v = Math.min(v, max(s1, alpha, beta, searchDepth - 1));
-            if (v <= alpha)
+        if (moves.isEmpty()) { // The player has to pass
+            s.changePlayer();
+            int v = max(s, alpha, beta, searchDepth - 1);
+            s.changePlayer();
+            return v;
+        }
+        int v = Integer.MAX_VALUE;
+        if (SearchStats.ENABLED)
+            stats.expanded();
+        for (int i = 0; i < moves.size(); i++) {
+            Position p = moves.get(i);
+            long undo = s.makeMove(p);
+            v = Math.min(v, max(s, alpha, beta, searchDepth - 1));
+            s.undoMove(p, undo);
+            if (v <= alpha) {
+                if (SearchStats.ENABLED)
+                    stats.cutoff(i);
                 return v;
+            }
             beta = Math.min(v, beta);
-            BETA = beta;
         }
-        BETA = beta;
         return v;
     }
 
+    /**
+     * Returns the value of a finished game for black: the difference in tokens, scaled so that a win is worth more
+     * than any evaluation. The 4096 places of a 64x64 board scale to at most 2^28, so the values do not overflow.
+     */
+    private static int finalScore(GameState s) {
+        int[] tokens = s.countTokens();
+        return (tokens[0] - tokens[1]) * TOKEN_VALUE;
+    }
+
+    /**
+     * Returns the score of the board for black: the pattern evaluation on 8x8 boards, otherwise the weighted score,
+     * which is kept up to date by states that carry the weights.
+     */
     public int cutOffEval(GameState s) {
-        int value = 0;
-        for (int i = 0; i < s.getBoard().length; i++) {
-            for (int j = 0; j < s.getBoard().length; j++) {
-                if (s.getBoard()[i][j] == 1)
-                    value += weights[i][j];
-                else if (s.getBoard()[i][j] == 2)
-                    value -= weights[i][j];
-            }
-        }
-        return value;
+        if (s.isBitboard())
+            return patterns.evaluate(s);
+        if (s.hasWeights(weights))
+            return s.weightedScore();
+        return kernel.weightedSum(s.getBoard(), weights);
     }
 
+    // Tuned weights of the phase of the state if there are tables for its size (see WeightTables), otherwise
+    // the hand made weights
     private void definingWeights(GameState s) {
-        if (weights == null) {
+        int[][] tuned = WeightTables.getDefault().weights(s.getBoard().length, s.countEmpty());
+        if (tuned != null) {
+            weights = tuned;
+        } else if (weights == null) {
             int size = s.getBoard().length;
             weights = new int[size][size];
 
@@ -153,10 +281,5 @@ public class OthelloAIPruneNew implements IOthelloAI {
             weights[size - 1][size - 2] = 4;
 
         }
-
-        for (int x = 0; x < weights.length; x++) {
-            for (int y = 0; y < weights.length; y++) {
-            }
-        }
     }
 }
@@ -0,0 +1,230 @@
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Parallel alpha-beta search (Lazy SMP). Every thread runs the iterative deepening search of OthelloAIPrune on
+ * the whole tree, but all threads share one transposition table. Results found by one thread make others cut off
+ * or order their moves better, so the threads together reach a given depth sooner than one thread would.
+ * Half of the helper threads start one ply deeper than the main thread, so the threads do not all search the
+ * same nodes in the same order.
+ */
+public class OthelloAISMP implements IOthelloAI {
+    private final long timeLimit;                 // Milliseconds the search may spend on one move
+    private final TranspositionTable table = new TranspositionTable(22);
+    private final OthelloAIPrune[] searchers;     // One search per thread, searchers[0] is the main one
+    private final ExecutorService pool;
+    private final EndgameSolver endgameSolver = new EndgameSolver();
+    private volatile Deadline moveDeadline;       // Deadline of the move being decided, for stop()
+
+    public OthelloAISMP() {
+        this(OthelloAIPrune.DEFAULT_TIME_LIMIT, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param timeLimit The time in milliseconds the AI may spend on deciding a move
+     * @param threads The number of threads to search with
+     */
+    public OthelloAISMP(long timeLimit, int threads) {
+        this.timeLimit = timeLimit;
+        searchers = new OthelloAIPrune[threads];
+        for (int i = 0; i < threads; i++)
+            searchers[i] = new OthelloAIPrune(timeLimit, table);
+        pool = Executors.newFixedThreadPool(threads, daemonThreads());
+    }
+
+    public Position decideMove(GameState s) {
+        Timer timer = new Timer();
+        ArrayList<Position> moves = s.legalMoves();
+        System.out.println("Number of available moves: " + moves.size());
+        Deadline deadline = new Deadline(timeLimit);
+        moveDeadline = deadline;
+
+        Position booked = OpeningBook.getDefault().lookup(s);
+        if (booked != null) {
+            System.out.println("Book move. Took: " + timer.check() + " seconds.");
+            return booked;
+        }
+
+        // Near the end, solve the game with half of the time, and search with the rest if that is not enough
+        if (EndgameSolver.applies(s)) {
+            Position solved = endgameSolver.solveForEngine(s, new Deadline(timeLimit / 2, deadline));
+            if (solved != null) {
+                System.out.println("Solved: " + endgameSolver.getScore() + ". Took: " + timer.check() + " seconds.");
+                return solved;
+            }
+        }
+
+        Position best = search(s, moves, deadline, Integer.MAX_VALUE);
+        System.out.println("Depth: " + searchers[0].getCompletedDepth() + ". Took: " + timer.check() + " seconds.");
+        if (SearchStats.ENABLED)
+            System.out.println(getStats());
+        return best;
+    }
+
+    /**
+     * Makes all threads return the moves of the deepest iterations they have finished for the move being decided.
+     */
+    public void stop() {
+        Deadline d = moveDeadline;
+        if (d != null)
+            d.stop();
+    }
+
+    /**
+     * Sets the listener to tell of the iterations finished by the main thread.
+     */
+    public void setSearchListener(ISearchListener listener) {
+        searchers[0].setSearchListener(listener);
+    }
+
+    /**
+     * Searches with all threads until the deadline or maxDepth is reached, and returns the move of the deepest
+     * iteration finished by any thread.
+     */
+    Position search(GameState s, ArrayList<Position> moves, Deadline deadline, int maxDepth) {
+        OthelloAIPrune main = searchers[0];
+        main.definingWeights(s);
+        table.newSearch();
+
+        ArrayList<Future<Position>> results = new ArrayList<>();
+        for (int i = 0; i < searchers.length; i++) {
+            OthelloAIPrune searcher = searchers[i];
+            searcher.weights = main.weights;
+            int startDepth = 1 + (i % 2);
+            results.add(pool.submit(() -> {
+                Position move = searcher.iterate(s, moves, deadline, startDepth, maxDepth);
+                // The first thread to finish has searched as deep as possible, so the others can stop
+                deadline.stop();
+                return move;
+            }));
+        }
+
+        Position best = moves.get(0);
+        int bestDepth = 0;
+        for (int i = 0; i < searchers.length; i++) {
+            Position move = get(results.get(i));
+            int depth = searchers[i].getCompletedDepth();
+            if (depth > bestDepth) {
+                bestDepth = depth;
+                best = move;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the statistics of the last move summed over all threads. They are only counted if
+     * SearchStats.ENABLED.
+     */
+    public SearchStats getStats() {
+        SearchStats stats = new SearchStats("OthelloAISMP");
+        for (OthelloAIPrune searcher : searchers)
+            stats.add(searcher.getStats());
+        return stats;
+    }
+
+    /**
+     * Returns the total number of nodes visited by all threads.
+     */
+    long getNodes() {
+        long nodes = 0;
+        for (OthelloAIPrune searcher : searchers)
+            nodes += searcher.getNodes();
+        return nodes;
+    }
+
+    private static Position get(Future<Position> result) {
+        try {
+            return result.get();
+        } catch (Exception e) {
+            throw new IllegalStateException("Search thread failed", e);
+        }
+    }
+
+    private static ThreadFactory daemonThreads() {
+        return r -> {
+            Thread t = new Thread(r, "OthelloAISMP search");
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Class used for timing in seconds.
+     */
+    public class Timer {
+        private long start;
+
+        public Timer() {
+            start = System.nanoTime();
+        }
+
+        public double check() {
+            return (System.nanoTime() - start) / 1e9;
+        }
+    }
+
+    /**
+     * Benchmark of the scaling from 1 thread to the given number of threads: the time to reach a fixed depth and
+     * the nodes per second, summed over a fixed set of positions.
+     * Usage: java OthelloAISMP [maxThreads] [depth]
+     */
+    public static void main(String[] args) {
+        int maxThreads = args.length >= 1 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int depth = args.length >= 2 ? Integer.parseInt(args[1]) : 10;
+        ArrayList<GameState> positions = benchmarkPositions();
+
+        ArrayList<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < maxThreads; threads *= 2)
+            threadCounts.add(threads);
+        threadCounts.add(maxThreads);
+
+        // Warm up the JIT compiler before measuring
+        OthelloAISMP warmUp = new OthelloAISMP(0, 1);
+        for (GameState s : positions)
+            warmUp.search(s, s.legalMoves(), Deadline.none(), depth);
+        warmUp.pool.shutdown();
+
+        double baseTime = 0;
+        System.out.println("threads\ttime(s)\tspeedup\tnodes/s");
+        for (int threads : threadCounts) {
+            double time = 0;
+            long nodes = 0;
+            for (GameState s : positions) {
+                OthelloAISMP ai = new OthelloAISMP(0, threads);
+                long start = System.nanoTime();
+                ai.search(s, s.legalMoves(), Deadline.none(), depth);
+                time += (System.nanoTime() - start) / 1e9;
+                nodes += ai.getNodes();
+                ai.pool.shutdown();
+            }
+            if (threads == 1)
+                baseTime = time;
+            System.out.printf("%d\t%.3f\t%.2f\t%.0f%n", threads, time, baseTime / time, nodes / time);
+        }
+    }
+
+    // Midgame positions reached by a fixed sequence of pseudo-random moves
+    private static ArrayList<GameState> benchmarkPositions() {
+        ArrayList<GameState> positions = new ArrayList<>();
+        Random random = new Random(2018);
+        while (positions.size() < 6) {
+            GameState s = new GameState(8, 1);
+            int plies = 12 + positions.size() * 4;
+            for (int i = 0; i < plies && !s.isFinished(); i++) {
+                ArrayList<Position> moves = s.legalMoves();
+                if (moves.isEmpty())
+                    s.changePlayer();
+                else
+                    s.insertToken(moves.get(random.nextInt(moves.size())));
+            }
+            if (!s.isFinished() && !s.legalMoves().isEmpty())
+                positions.add(s);
+        }
+        return positions;
+    }
+}
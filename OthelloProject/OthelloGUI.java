@@ -2,14 +2,27 @@ import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
  * GUI to show the Othello game and to listen for input for the user/human player. When it is the user's turn, 
- * (s)he clicks on the place where (s)he wants to place a token, and when it is the computer's turn, the 
- * player needs to click anywhere in the frame to make the computer take it's turn. The user is made aware
- * of any illegal moves, or when (s)he - or the computer - have to pass because no legal moves are possible.  
+ * (s)he clicks on the place where (s)he wants to place a token. When it is the computer's turn, the AI decides
+ * its move on a background thread, so the window stays responsive: the status line below the board shows the
+ * best move and depth the AI has found so far (for AIs that report them, see ISearchListener), and the
+ * "Move now" button makes the AI play its best move at once (see IOthelloAI.stop). Games between two AIs go on
+ * by themselves. The user is made aware of any illegal moves, or when (s)he - or the computer - have to pass
+ * because no legal moves are possible.
+ *
+ * The board is drawn once into an image, and after a move only the squares that changed are drawn again, so
+ * painting only copies the image. The images are decoded in parallel while the window opens.
  * @author Mai Ajspur
  * @version 9.2.2018
  */
@@ -17,18 +30,30 @@ public class OthelloGUI extends JComponent implements MouseListener
 {
     static final long 	serialVersionUID = 1234567890;
 	static final int 	imgSize = 100;
+	static final int 	AI_MOVE_DELAY = 500;	// Milliseconds between the moves of two AIs, so the game can be followed
 	
-	private GameState state;		// The state of the game
+	private GameState state;		// The state of the game, only used on the event dispatch thread
     private int size;				// Number of rows and columns on the board
     private boolean humanPlayer;	// Whether a human player is playing or not
     private IOthelloAI ai1;			// The AI for player 1 if there are no human player
     private IOthelloAI ai2;			// The AI for player 2 
 
-    // Images for drawing the game board
+    private AIWorker worker;		// The AI deciding the next move, or null
+    private Position thinkingMove;	// The best move found so far by the AI deciding, or null
+    private JLabel status = new JLabel(" ");
+    private JButton moveNow = new JButton("Move now");
+
+    // Images for drawing the game board, set once all have been decoded
     private Image 		part, blackPion, whitePion, background;
     private Image 		border_left, border_right, border_top, border_bottom;
     private Image 		corner_left_top, corner_left_bottom, corner_right_top, corner_right_bottom;
     private Image 		blackWon, whiteWon, tie;
+
+    private BufferedImage boardImage;	// The board with its borders as last drawn, or null until the images are decoded
+    private BufferedImage[] squares;	// A square of the board with the maze drawn over it, by player (0 for empty)
+    private int[][] shown;				// The players of the squares as drawn in boardImage
+    private Image result;				// The image of the result once the game is over, or null
+    private boolean finished;			// Whether the game is over, found once per move
 	
     /**
      * Initializes game
@@ -39,22 +64,6 @@ public class OthelloGUI extends JComponent implements MouseListener
      * @param humanPlayer true if there is a (one) human player
      */
     public OthelloGUI(IOthelloAI ai1, IOthelloAI ai2, int size, boolean humanPlayer) throws IOException{
-   		part = ImageIO.read(new File("imgs/maze.png"));
-    	blackPion = ImageIO.read(new File("imgs/blackPion.png"));
-    	whitePion = ImageIO.read(new File("imgs/whitePion.png"));
-    	background = ImageIO.read(new File("imgs/background.png"));
-    	border_left = ImageIO.read(new File("imgs/border_left.png"));
-    	border_right = ImageIO.read(new File("imgs/border_right.png"));
-    	border_top = ImageIO.read(new File("imgs/border_top.png"));
-    	border_bottom = ImageIO.read(new File("imgs/border_bottom.png"));
-    	corner_left_top = ImageIO.read(new File("imgs/corner_left_top.png"));
-    	corner_left_bottom = ImageIO.read(new File("imgs/corner_left_bottom.png"));
-    	corner_right_top = ImageIO.read(new File("imgs/corner_right_top.png"));
-    	corner_right_bottom = ImageIO.read(new File("imgs/corner_right_bottom.png"));
-    	blackWon = ImageIO.read(new File("imgs/blackWon.png"));
-    	whiteWon = ImageIO.read(new File("imgs/whiteWon.png"));
-    	tie = ImageIO.read(new File("imgs/tie.png"));
-		
     	this.size = size;
     	this.state = new GameState(size, 1); // Player 1 (human if there is any) goes first
     	this.humanPlayer = humanPlayer;
@@ -62,91 +71,348 @@ public class OthelloGUI extends JComponent implements MouseListener
     		this.ai1 = ai1;
     	this.ai2=ai2;
     	this.addMouseListener(this);
+    	this.setDoubleBuffered(true);
+    	moveNow.setEnabled(false);
+    	moveNow.addActionListener(e -> {
+    		if ( worker != null ){
+    			worker.ai.stop();
+    			status.setText(playerName(state.getPlayerInTurn()) + " is stopping...");
+    		}
+    	});
+
+    	// The images are decoded in parallel, and the board is drawn when all are
+    	String[] names = { "maze", "blackPion", "whitePion", "background", "border_left", "border_right", 
+    			"border_top", "border_bottom", "corner_left_top", "corner_left_bottom", "corner_right_top", 
+    			"corner_right_bottom", "blackWon", "whiteWon", "tie" };
+    	List<CompletableFuture<BufferedImage>> images = new ArrayList<>();
+    	for (String name : names){
+    		File file = new File("imgs/" + name + ".png");
+    		if ( !file.isFile() )
+    			throw new IOException("Image not found: " + file);
+    		images.add(CompletableFuture.supplyAsync(() -> readImage(file)));
+    	}
+    	CompletableFuture.allOf(images.toArray(new CompletableFuture<?>[0])).whenComplete((done, e) -> 
+    		SwingUtilities.invokeLater(() -> imagesDecoded(images)));
+    }
+
+    private static BufferedImage readImage(File file){
+    	try {
+    		BufferedImage image = ImageIO.read(file);
+    		if ( image == null )
+    			throw new IOException("Not an image: " + file);
+    		return image;
+    	} catch (IOException e) {
+    		throw new UncheckedIOException(e);
+    	}
     }
 
     /**
-     * Draws the current game board and shows if someone won.
+     * Sets the images once all have been decoded, in the order of the names in the constructor, and draws the board.
      */
-    public void paint(Graphics g){
-		int[][] gameBoard = state.getBoard();
-    	this.setDoubleBuffered(true);
-    	Insets in = getInsets();               
-    	g.translate(in.left, in.top);            
+    private void imagesDecoded(List<CompletableFuture<BufferedImage>> images){
+    	Image[] loaded = new Image[images.size()];
+    	try {
+    		for (int i = 0; i < loaded.length; i++)
+    			loaded[i] = images.get(i).get();
+    	} catch (InterruptedException | ExecutionException e) {
+    		Throwable cause = e.getCause() != null ? e.getCause() : e;
+    		JOptionPane.showMessageDialog(this, "Could not read the images: " + cause.getMessage(), "Images Missing", 
+    				JOptionPane.ERROR_MESSAGE);
+    		return;
+    	}
+    	part = loaded[0]; blackPion = loaded[1]; whitePion = loaded[2]; background = loaded[3];
+    	border_left = loaded[4]; border_right = loaded[5]; border_top = loaded[6]; border_bottom = loaded[7];
+    	corner_left_top = loaded[8]; corner_left_bottom = loaded[9]; corner_right_top = loaded[10]; 
+    	corner_right_bottom = loaded[11];
+    	blackWon = loaded[12]; whiteWon = loaded[13]; tie = loaded[14];
+    	drawBoard();
+    	if ( finished )
+    		showResult();
+    	repaint();
+    }
+
+    /**
+     * Draws the whole board with its borders into boardImage.
+     */
+    private void drawBoard(){
+    	squares = new BufferedImage[3];
+    	Image[] tokens = { background, blackPion, whitePion };
+    	for (int player = 0; player < 3; player++){
+    		squares[player] = new BufferedImage(imgSize, imgSize, BufferedImage.TYPE_INT_ARGB);
+    		Graphics2D g = squares[player].createGraphics();
+    		g.drawImage(tokens[player], 0, 0, null);
+    		g.drawImage(part, 0, 0, null);
+    		g.dispose();
+    	}
+
+    	boardImage = new BufferedImage((size+2)*imgSize, (size+2)*imgSize, BufferedImage.TYPE_INT_ARGB);
+    	Graphics2D g = boardImage.createGraphics();
+    	for (int i = 0; i < size; i++){
+    		g.drawImage(border_left, 0, imgSize+imgSize*i, null); 
+    		g.drawImage(border_right, size*imgSize+imgSize, imgSize+imgSize*i, null); 
+    		g.drawImage(border_top, imgSize+imgSize*i, 0, null);
+    		g.drawImage(border_bottom, imgSize+imgSize*i, size*imgSize+imgSize, null);
+    	}
+    	g.drawImage(corner_left_top, 0, 0, null);
+    	g.drawImage(corner_left_bottom, 0, size*imgSize+imgSize, null);
+    	g.drawImage(corner_right_top, imgSize+imgSize*size, 0, null);
+    	g.drawImage(corner_right_bottom, imgSize+imgSize*size, size*imgSize+imgSize, null);
+    	g.dispose();
 
+    	shown = new int[size][size];
+    	for (int[] column : shown)
+    		Arrays.fill(column, -1);
+    	boardChanged();
+    }
+
+    /**
+     * Draws the squares whose player has changed since they were drawn, and repaints them.
+     */
+    private void boardChanged(){
+    	if ( boardImage == null )
+    		return;
+    	int[][] gameBoard = state.getBoard();
+    	Graphics2D g = boardImage.createGraphics();
+    	g.setComposite(AlphaComposite.Src);	// The square replaces what was drawn before
     	for (int c = 0; c < size; c++){
     		for (int r = 0; r < size; r++){
     			int player = gameBoard[c][r];
-    			if (player == 0) // background
-    				g.drawImage(background, imgSize+imgSize*c, imgSize+imgSize*r, this);
-    			else if (player == 2) // white = player2
-    				g.drawImage(whitePion, imgSize+imgSize*c, imgSize+imgSize*r, this);
-    			else // black = player1
-    				g.drawImage(blackPion, imgSize+imgSize*c, imgSize+imgSize*r, this);
-    			g.drawImage(part, imgSize+imgSize*c, imgSize+imgSize*r, this);
-    			if (c == 0){
-    				g.drawImage(border_left, 0, imgSize+imgSize*r, this); 
-    				g.drawImage(border_right, size*imgSize+imgSize, imgSize+imgSize*r, this); 
-    			}
+    			if ( shown[c][r] == player )
+    				continue;
+    			shown[c][r] = player;
+    			g.drawImage(squares[player], imgSize+imgSize*c, imgSize+imgSize*r, null);
+    			repaintSquare(c, r);
     		}
-    		g.drawImage(border_top, imgSize+imgSize*c, 0, this);
-    		g.drawImage(border_bottom, imgSize+imgSize*c, size*imgSize+imgSize, this);
     	}
-    	g.drawImage(corner_left_top, 0, 0, this);
-    	g.drawImage(corner_left_bottom, 0, size*imgSize+imgSize, this);
-    	g.drawImage(corner_right_top, imgSize+imgSize*size, 0, this);
-    	g.drawImage(corner_right_bottom, imgSize+imgSize*size, size*imgSize+imgSize, this);
+    	g.dispose();
+    }
+
+    private void repaintSquare(int col, int row){
+    	Insets in = getInsets();
+    	repaint(in.left+imgSize+imgSize*col, in.top+imgSize+imgSize*row, imgSize, imgSize);
+    }
+
+    /**
+     * Sets the image of the result once the game is over.
+     */
+    private void showResult(){
+    	int[] tokens = state.countTokens();
+    	if ( tokens[0] > tokens[1] )
+    		result = blackWon;
+    	else if ( tokens[0] < tokens[1] )
+    		result = whiteWon;
+    	else
+    		result = tie;
+    	repaint();
+    }
+
+    /**
+     * Returns the status line and the "Move now" button, to be shown below the board.
+     */
+    public JComponent getControls(){
+    	JPanel controls = new JPanel(new BorderLayout());
+    	controls.add(status, BorderLayout.CENTER);
+    	controls.add(moveNow, BorderLayout.EAST);
+    	return controls;
+    }
+
+    /**
+     * Starts the game, i.e. lets the first player move. Should be called on the event dispatch thread.
+     */
+    public void start(){
+    	nextTurn();
+    }
+
+    /**
+     * Draws the current game board and shows if someone won. Only the part of the board image within the clip is
+     * copied.
+     */
+    public void paint(Graphics g){
+    	Insets in = getInsets();               
+    	g.translate(in.left, in.top);            
+    	if ( boardImage == null ) // The images are being decoded
+    		return;
+    	g.drawImage(boardImage, 0, 0, this);
+
+    	if ( thinkingMove != null ){ // Marks the best move found so far by the AI deciding
+    		g.setColor(new Color(255, 64, 64, 160));
+    		g.fillOval(imgSize+imgSize*thinkingMove.col+imgSize/3, imgSize+imgSize*thinkingMove.row+imgSize/3, 
+    				imgSize/3, imgSize/3);
+    	}
 		
-    	if ( state.isFinished() ){
-    		int[] tokens = state.countTokens();
-    		if ( tokens[0] > tokens[1] )
-    			g.drawImage(blackWon, size*imgSize/2-(imgSize/2), size*imgSize/2+(imgSize/4), this);
-    		else if ( tokens[0] < tokens[1] )
-    			g.drawImage(whiteWon, size*imgSize/2-(imgSize/2), size*imgSize/2+(imgSize/4), this);
-    		else
-    			g.drawImage(tie, size*imgSize/2-(imgSize/2), size*imgSize/2+(imgSize/4), this);
-    	}		
+    	if ( result != null )
+    		g.drawImage(result, size*imgSize/2-(imgSize/2), size*imgSize/2+(imgSize/4), this);
     }
 
+    /**
+     * Makes the move of the human player, or retries the AI in turn if it made an illegal move.
+     */
     public void mouseClicked(MouseEvent e){
-    	int currentPlayer = state.getPlayerInTurn();
-    	if ( !state.isFinished() ){
-    		Position place = getPlaceForNextToken(e);
-    		if ( state.insertToken(place) ){ // Chosen move is legal
-				boolean nextPlayerCannotMove = state.legalMoves().isEmpty();
-   				if ( nextPlayerCannotMove ){ // The next player cannot move
-					repaint();
-   					state.changePlayer();
-   					if ( humanPlayer ){ // If there is a human involved, (s)he needs to know this
-   	  					boolean canMoveAfterwards = !state.legalMoves().isEmpty();
-   	   					if ( canMoveAfterwards ){
-   	   						String message = currentPlayer == 1 ? "Your opponent has no legal moves. It is your turn again." 
-   	   													 	    : "You have no legal moves. Your opponent will make another move (click again).";
-   	   						JOptionPane.showMessageDialog(this, message);
-   	   					}  						
-   					}
-   				}
- 			}
-   			else 
-   				illegalMoveAttempted(place); 		
-    		repaint();
-    	}
+    	if ( worker != null || finished )
+    		return;
+    	if ( isHumanInTurn() )
+    		makeMove(humanSelectedPlace(e));
+    	else
+    		startAI();
     }
-    
+
     /**
-     * Get a position to place the next token (i.e. read mouse click if human
-     * player is in turn, otherwise ask corresponding AI)
+     * Makes the given move for the player in turn, and lets the next player move if it was legal.
      */
-    private Position getPlaceForNextToken(MouseEvent e){
-    	if ( state.getPlayerInTurn() == 2 ) 
-			return ai2.decideMove(state);
+    private void makeMove(Position place){
+    	int currentPlayer = state.getPlayerInTurn();
+		if ( state.insertToken(place) ){ // Chosen move is legal
+			boolean nextPlayerCannotMove = state.legalMoves().isEmpty();
+			boardChanged();
+			if ( nextPlayerCannotMove ){ // The next player cannot move
+				state.changePlayer();
+				if ( humanPlayer ){ // If there is a human involved, (s)he needs to know this
+					boolean canMoveAfterwards = !state.legalMoves().isEmpty();
+					if ( canMoveAfterwards ){
+						String message = currentPlayer == 1 ? "Your opponent has no legal moves. It is your turn again." 
+															: "You have no legal moves. Your opponent will make another move.";
+						JOptionPane.showMessageDialog(this, message);
+					}  						
+				}
+			}
+			nextTurn();
+		}
 		else {
-			if ( humanPlayer )
-				return humanSelectedPlace(e);
-			else
-				return ai1.decideMove(state);
+			illegalMoveAttempted(place);
+			if ( !isHumanInTurn() )
+				status.setText(playerName(currentPlayer) + " chose an invalid move. Click to let it try again.");
 		}
     }
 
+    /**
+     * Shows whose turn it is, or the result if the game is over, and starts the AI if it is in turn. The second of
+     * two AIs starts after a short delay.
+     */
+    private void nextTurn(){
+    	finished = state.isFinished();
+    	if ( finished ){
+    		int[] tokens = state.countTokens();
+    		String winner = tokens[0] > tokens[1] ? "Black won" : tokens[0] < tokens[1] ? "White won" : "Tie";
+    		status.setText(winner + ", " + tokens[0] + " - " + tokens[1] + ".");
+    		if ( boardImage != null ) // Otherwise imagesDecoded shows it
+    			showResult();
+    		return;
+    	}
+    	if ( isHumanInTurn() ){
+    		status.setText("Your turn.");
+    		return;
+    	}
+    	if ( humanPlayer )
+    		startAI();
+    	else {
+    		Timer delay = new Timer(AI_MOVE_DELAY, e -> startAI());
+    		delay.setRepeats(false);
+    		delay.start();
+    	}
+    }
+
+    /**
+     * Lets the AI in turn decide its move on a background thread. The move is made when it has decided.
+     */
+    private void startAI(){
+    	if ( worker != null || finished )
+    		return;
+    	int player = state.getPlayerInTurn();
+    	worker = new AIWorker(player == 1 ? ai1 : ai2, new GameState(state));
+    	status.setText(playerName(player) + " is thinking...");
+    	moveNow.setEnabled(true);
+    	worker.execute();
+    }
+
+    /**
+     * Marks the given square as the best move found so far, or none if it is null, and repaints the squares.
+     */
+    private void setThinkingMove(Position move){
+    	if ( thinkingMove != null )
+    		repaintSquare(thinkingMove.col, thinkingMove.row);
+    	thinkingMove = move;
+    	if ( move != null )
+    		repaintSquare(move.col, move.row);
+    }
+
+    private boolean isHumanInTurn(){
+    	return humanPlayer && state.getPlayerInTurn() == 1;
+    }
+
+    private String playerName(int player){
+    	IOthelloAI ai = player == 1 ? ai1 : ai2;
+    	String colour = player == 1 ? "Black" : "White";
+    	return ai == null ? colour : colour + " (" + ai.getClass().getSimpleName() + ")";
+    }
+
+    /**
+     * The best move found so far by an AI, and the depth of the search that found it.
+     */
+    private static class Progress {
+    	final Position best;
+    	final int depth;
+
+    	Progress(Position best, int depth){
+    		this.best = best;
+    		this.depth = depth;
+    	}
+    }
+
+    /**
+     * Runs decideMove of an AI on a background thread, on a copy of the state so the board can be painted
+     * meanwhile. Its progress and its move are handled on the event dispatch thread.
+     */
+    private class AIWorker extends SwingWorker<Position, Progress> implements ISearchListener {
+    	private final IOthelloAI ai;
+    	private final GameState s;
+    	private final long start = System.nanoTime();
+
+    	AIWorker(IOthelloAI ai, GameState s){
+    		this.ai = ai;
+    		this.s = s;
+    	}
+
+    	protected Position doInBackground(){
+    		ai.setSearchListener(this);
+    		try {
+    			return ai.decideMove(s);
+    		} finally {
+    			ai.setSearchListener(null);
+    		}
+    	}
+
+    	// Called on the thread of the search
+    	public void progress(Position best, int depth){
+    		publish(new Progress(best, depth));
+    	}
+
+    	protected void process(List<Progress> chunks){
+    		if ( worker != this )
+    			return;
+    		Progress last = chunks.get(chunks.size()-1);
+    		setThinkingMove(last.best);
+    		status.setText(String.format("%s is thinking: depth %d, best move %s, %.1f seconds.", 
+    				playerName(s.getPlayerInTurn()), last.depth, last.best, (System.nanoTime() - start) / 1e9));
+    	}
+
+    	protected void done(){
+    		worker = null;
+    		setThinkingMove(null);
+    		moveNow.setEnabled(false);
+    		Position move;
+    		try {
+    			move = get();
+    		} catch (InterruptedException | ExecutionException e) {
+    			Throwable cause = e.getCause() != null ? e.getCause() : e;
+    			JOptionPane.showMessageDialog(OthelloGUI.this, "The AI for player " + s.getPlayerInTurn() 
+    				+ " failed: " + cause + ". Please debug!", "AI Failed", JOptionPane.ERROR_MESSAGE);
+    			status.setText(playerName(s.getPlayerInTurn()) + " failed. Click to let it try again.");
+    			return;
+    		}
+    		makeMove(move);
+    	}
+    }
+
     /**
      * Display message for when an illegal move has been attempted 
      */
@@ -4,12 +4,13 @@ public class OthelloIAMM implements IOthelloAI{
 	public Position decideMove(GameState s){
 		
 		ArrayList<Position> moves = s.legalMoves();
+		GameState state=new GameState(s);
 		Position best=moves.get(0);
 		int max=0;
 		for(Position p : moves){
-			GameState s1=new GameState(s.getBoard(),s.getPlayerInTurn());
-			s1.insertToken(p);
-			int utility=min(s1);
+			long undo=state.makeMove(p);
+			int utility=min(state);
+			state.undoMove(p,undo);
 					if(max<utility){
 						max=utility;
 						best=p;
@@ -24,9 +25,9 @@ public class OthelloIAMM implements IOthelloAI{
 		int v =0;
 		ArrayList<Position> moves = s.legalMoves();
 		for(Position p : moves){
-			GameState s1=new GameState(s.getBoard(),s.getPlayerInTurn());
-			s1.insertToken(p);
-			v=Math.max(v,min(s1));
+			long undo=s.makeMove(p);
+			v=Math.max(v,min(s));
+			s.undoMove(p,undo);
 		}
 		return v;
 	}
@@ -37,9 +38,9 @@ public class OthelloIAMM implements IOthelloAI{
 		int v =s.getBoard().length*s.getBoard()[0].length;
 		ArrayList<Position> moves = s.legalMoves();
 		for(Position p : moves){
-			GameState s1=new GameState(s.getBoard(),s.getPlayerInTurn());
-			s1.insertToken(p);
-			v=Math.min(v,max(s1));
+			long undo=s.makeMove(p);
+			v=Math.min(v,max(s));
+			s.undoMove(p,undo);
 		}
 		return v;
 	}
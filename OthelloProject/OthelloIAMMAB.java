@@ -1,15 +1,21 @@
 import java.util.ArrayList;
 public class OthelloIAMMAB implements IOthelloAI{
 	// minimax solution
+	private final EndgameSolver endgameSolver = new EndgameSolver();
+
 	public Position decideMove(GameState s){
+		// Searching to the end only finishes near the end, where the endgame solver does it much faster
+		if (EndgameSolver.applies(s))
+			return endgameSolver.bestMove(s, true, Deadline.none());
 		
 		ArrayList<Position> moves = s.legalMoves();
+		GameState state=new GameState(s);
 		Position best=moves.get(0);
 		int max=0;
 		for(Position p : moves){
-			GameState s1=new GameState(s.getBoard(),s.getPlayerInTurn());
-			s1.insertToken(p);
-			int utility=min(s1,0,s.getBoard().length*s.getBoard()[0].length);
+			long undo=state.makeMove(p);
+			int utility=min(state,0,s.getBoard().length*s.getBoard()[0].length);
+			state.undoMove(p,undo);
 					if(max<utility){
 						max=utility;
 						best=p;
@@ -24,9 +30,9 @@ public class OthelloIAMMAB implements IOthelloAI{
 		int v =0;
 		ArrayList<Position> moves = s.legalMoves();
 		for(Position p : moves){
-			GameState s1=new GameState(s.getBoard(),s.getPlayerInTurn());
-			s1.insertToken(p);
-			v=Math.max(v,min(s1,alpha,beta));
+			long undo=s.makeMove(p);
+			v=Math.max(v,min(s,alpha,beta));
+			s.undoMove(p,undo);
 			if(v>beta)
 				return v;
 			alpha=Math.max(v,alpha);
@@ -40,9 +46,9 @@ public class OthelloIAMMAB implements IOthelloAI{
 		int v =s.getBoard().length*s.getBoard()[0].length;
 		ArrayList<Position> moves = s.legalMoves();
 		for(Position p : moves){
-			GameState s1=new GameState(s.getBoard(),s.getPlayerInTurn());
-			s1.insertToken(p);
-			v=Math.min(v,max(s1,alpha,beta));
+			long undo=s.makeMove(p);
+			v=Math.min(v,max(s,alpha,beta));
+			s.undoMove(p,undo);
 			if(v<=alpha)
 				return v;
 			beta=Math.min(v,beta);
@@ -0,0 +1,412 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Pattern based evaluation of 8x8 boards. The board is covered by patterns: the edges with the two X-squares,
+ * the 3x3 and 2x5 corner regions and the diagonals of length 4 to 8, each in all of its rotations and reflections.
+ * The squares of a pattern are read as a number in base 3 (0 empty, 1 black, 2 white), and the score of the
+ * board is the sum of the scores of those numbers in the table of the pattern. There are tables for each game
+ * phase, chosen by the number of empty places, since what a pattern is worth changes during the game.
+ *
+ * Unlike a table of weights per place, a pattern sees its squares together, e.g. that an X-square is only bad
+ * while its corner is empty, or that an edge run from a corner cannot be turned.
+ *
+ * The tables are read from a gzip compressed binary file: a header (magic number, number of phases, number of
+ * patterns and the length of each pattern) followed by the scores as shorts, phase by phase and pattern by
+ * pattern. Without a file, tables derived from a positional heuristic are used. Running this class writes those
+ * to a file, see main.
+ */
+public class PatternEval {
+    public static final String DEFAULT_FILE = "pattern.eval";
+
+    /** Scores in the tables are in 1/SCALE discs */
+    public static final int SCALE = 16;
+    /** The number of phases, of 5 empty places each */
+    public static final int PHASES = 13;
+
+    private static final int MAGIC = 0x50415431;     // "PAT1"
+
+    // One instance of each pattern, as places col*8+row in the order of their base 3 digits
+    private static final int[][] PATTERNS = {
+            { 0, 8, 16, 24, 32, 40, 48, 56, 9, 49 },                      // Edge and X-squares
+            { 0, 1, 2, 8, 9, 10, 16, 17, 18 },                           // 3x3 corner
+            { 0, 8, 16, 24, 32, 1, 9, 17, 25, 33 },                      // 2x5 corner
+            { 0, 9, 18, 27, 36, 45, 54, 63 },                            // Main diagonal
+            { 1, 10, 19, 28, 37, 46, 55 },                               // Diagonals of length 7 to 4
+            { 2, 11, 20, 29, 38, 47 },
+            { 3, 12, 21, 30, 39 },
+            { 4, 13, 22, 31 },
+    };
+
+    private static final int EDGE = 0;
+    static final int PATTERN_COUNT = PATTERNS.length;
+    // The places of every rotation and reflection of the patterns, and the pattern of each
+    static final int[][] INSTANCES;
+    static final int[] INSTANCE_PATTERN;
+
+    // For a fast evaluation the places of each instance are split into groups of places on different rows, of the
+    // board or of the transposed board. A multiplication gathers the tokens of a group into one byte (see gather),
+    // and a table gives the base 3 digits of the byte. The groups of instance i are INSTANCE_GROUPS[i] up to
+    // INSTANCE_GROUPS[i+1].
+    private static final int[] INSTANCE_GROUPS;
+    private static final long[] GROUP_MASK;
+    private static final boolean[] GROUP_TRANSPOSED;
+    private static final char[][] GROUP_DIGITS;     // [group][byte], the value of black tokens on the rows of the byte
+
+    static {
+        ArrayList<int[]> instances = new ArrayList<>();
+        ArrayList<Integer> patterns = new ArrayList<>();
+        for (int pattern = 0; pattern < PATTERN_COUNT; pattern++) {
+            ArrayList<Long> seen = new ArrayList<>();
+            for (int symmetry = 0; symmetry < 8; symmetry++) {
+                int[] places = new int[PATTERNS[pattern].length];
+                long set = 0;
+                for (int i = 0; i < places.length; i++) {
+                    places[i] = Long.numberOfTrailingZeros(OpeningBook.transform(1L << PATTERNS[pattern][i], symmetry));
+                    set |= 1L << places[i];
+                }
+                // A symmetry that maps the pattern onto itself would count its places twice
+                if (!seen.contains(set)) {
+                    seen.add(set);
+                    instances.add(places);
+                    patterns.add(pattern);
+                }
+            }
+        }
+        INSTANCES = instances.toArray(new int[0][]);
+        INSTANCE_PATTERN = new int[INSTANCES.length];
+        for (int i = 0; i < INSTANCE_PATTERN.length; i++)
+            INSTANCE_PATTERN[i] = patterns.get(i);
+
+        ArrayList<Long> masks = new ArrayList<>();
+        ArrayList<Boolean> transposed = new ArrayList<>();
+        ArrayList<char[]> digits = new ArrayList<>();
+        INSTANCE_GROUPS = new int[INSTANCES.length + 1];
+        for (int i = 0; i < INSTANCES.length; i++) {
+            INSTANCE_GROUPS[i] = masks.size();
+            int[] places = INSTANCES[i];
+            int[][] groups = groups(places, false);
+            int[][] transposedGroups = groups(places, true);
+            boolean transpose = transposedGroups.length < groups.length;
+            for (int[] group : transpose ? transposedGroups : groups) {
+                long mask = 0;
+                char[] groupDigits = new char[256];
+                for (int k : group) {
+                    int place = transpose ? transposePlace(places[k]) : places[k];
+                    mask |= 1L << place;
+                    int power = 1;
+                    for (int j = k + 1; j < places.length; j++)
+                        power *= 3;
+                    for (int b = 0; b < 256; b++) {
+                        if ((b >>> place % 8 & 1) != 0)
+                            groupDigits[b] += power;
+                    }
+                }
+                masks.add(mask);
+                transposed.add(transpose);
+                digits.add(groupDigits);
+            }
+        }
+        INSTANCE_GROUPS[INSTANCES.length] = masks.size();
+        GROUP_MASK = new long[masks.size()];
+        GROUP_TRANSPOSED = new boolean[masks.size()];
+        for (int g = 0; g < GROUP_MASK.length; g++) {
+            GROUP_MASK[g] = masks.get(g);
+            GROUP_TRANSPOSED[g] = transposed.get(g);
+        }
+        GROUP_DIGITS = digits.toArray(new char[0][]);
+    }
+
+    // Splits the places of an instance into groups of places on different rows, as few as a greedy split finds.
+    // Returns the positions of the places in the instance.
+    private static int[][] groups(int[] places, boolean transpose) {
+        ArrayList<ArrayList<Integer>> groups = new ArrayList<>();
+        ArrayList<Integer> rows = new ArrayList<>();      // The rows taken in each group, as bits
+        for (int k = 0; k < places.length; k++) {
+            int row = (transpose ? transposePlace(places[k]) : places[k]) % 8;
+            int g = 0;
+            while (g < groups.size() && (rows.get(g) >>> row & 1) != 0)
+                g++;
+            if (g == groups.size()) {
+                groups.add(new ArrayList<>());
+                rows.add(0);
+            }
+            groups.get(g).add(k);
+            rows.set(g, rows.get(g) | 1 << row);
+        }
+        int[][] result = new int[groups.size()][];
+        for (int g = 0; g < result.length; g++)
+            result[g] = groups.get(g).stream().mapToInt(Integer::intValue).toArray();
+        return result;
+    }
+
+    private static int transposePlace(int place) {
+        return place % 8 * 8 + place / 8;
+    }
+
+    /**
+     * Returns the tokens of the board on the places of the mask as one byte, with bit r set if there is a token
+     * on row r. The places of the mask should be on different rows, so the shifted copies added up by the
+     * multiplication never carry into each other.
+     */
+    private static int gather(long board, long mask) {
+        return (int) ((board & mask) * 0x0101010101010101L >>> 56);
+    }
+
+    private static PatternEval defaultEval;
+
+    private final short[][][] tables;   // [phase][pattern][index]
+
+    private PatternEval(short[][][] tables) {
+        this.tables = tables;
+    }
+
+    /**
+     * Returns the evaluation of the default file, or the heuristic one if there is no such file.
+     */
+    public static synchronized PatternEval getDefault() {
+        if (defaultEval == null) {
+            try {
+                defaultEval = load(DEFAULT_FILE);
+            } catch (FileNotFoundException e) {
+                defaultEval = heuristic();
+            } catch (IOException e) {
+                System.out.println("Could not read the pattern tables: " + e.getMessage());
+                defaultEval = heuristic();
+            }
+        }
+        return defaultEval;
+    }
+
+    /**
+     * Returns the score of the board for black in discs, i.e. the expected number of discs black wins by.
+     * The board should be 8x8.
+     */
+    public int evaluate(GameState s) {
+        boolean blackInTurn = s.getPlayerInTurn() == 1;
+        long black = blackInTurn ? s.own() : s.opponent();
+        long white = blackInTurn ? s.opponent() : s.own();
+        return evaluate(black, white) / SCALE;
+    }
+
+    /**
+     * Returns the sum of the table scores of the board, in 1/SCALE discs for black.
+     */
+    int evaluate(long black, long white) {
+        short[][] phaseTables = tables[phase(Long.bitCount(~(black | white)))];
+        long transposedBlack = OpeningBook.transform(black, 4);
+        long transposedWhite = OpeningBook.transform(white, 4);
+        int score = 0;
+        int g = 0;
+        for (int i = 0; i < INSTANCES.length; i++) {
+            int index = 0;
+            for (int end = INSTANCE_GROUPS[i + 1]; g < end; g++) {
+                long mask = GROUP_MASK[g];
+                char[] digits = GROUP_DIGITS[g];
+                boolean transposed = GROUP_TRANSPOSED[g];
+                index += digits[gather(transposed ? transposedBlack : black, mask)]
+                        + 2 * digits[gather(transposed ? transposedWhite : white, mask)];
+            }
+            score += phaseTables[INSTANCE_PATTERN[i]][index];
+        }
+        return score;
+    }
+
+    /**
+     * Returns the number in base 3 read from the given places, with the first place as the most significant digit.
+     * This is the index of the table score of an instance, which evaluate finds faster.
+     */
+    static int index(long black, long white, int[] places) {
+        int index = 0;
+        for (int place : places)
+            index = 3 * index + (int) (black >>> place & 1) + 2 * (int) (white >>> place & 1);
+        return index;
+    }
+
+    static int phase(int empties) {
+        return Math.min(PHASES - 1, empties / 5);
+    }
+
+    /**
+     * Returns the tables of the given phase and pattern, which may be changed, e.g. by a tuner.
+     */
+    short[] table(int phase, int pattern) {
+        return tables[phase][pattern];
+    }
+
+    //************ Files ****************//
+
+    /**
+     * Reads the tables from the given file.
+     * @throws IOException if the file cannot be read or does not hold tables of these patterns
+     */
+    public static PatternEval load(String file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != PHASES || in.readInt() != PATTERN_COUNT)
+                throw new IOException("Not a pattern table file for these patterns: " + file);
+            for (int pattern = 0; pattern < PATTERN_COUNT; pattern++) {
+                if (in.readInt() != PATTERNS[pattern].length)
+                    throw new IOException("Not a pattern table file for these patterns: " + file);
+            }
+            short[][][] tables = newTables();
+            byte[] bytes = new byte[2 * tableLength(PATTERNS[0].length)];
+            for (short[][] phaseTables : tables) {
+                for (short[] table : phaseTables) {
+                    in.readFully(bytes, 0, 2 * table.length);
+                    for (int i = 0; i < table.length; i++)
+                        table[i] = (short) (bytes[2 * i] << 8 | bytes[2 * i + 1] & 0xFF);
+                }
+            }
+            return new PatternEval(tables);
+        }
+    }
+
+    /**
+     * Writes the tables to the given file.
+     */
+    public void save(String file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(file))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(PHASES);
+            out.writeInt(PATTERN_COUNT);
+            for (int[] pattern : PATTERNS)
+                out.writeInt(pattern.length);
+            for (short[][] phaseTables : tables) {
+                for (short[] table : phaseTables) {
+                    for (short score : table)
+                        out.writeShort(score);
+                }
+            }
+        }
+    }
+
+    private static short[][][] newTables() {
+        short[][][] tables = new short[PHASES][PATTERN_COUNT][];
+        for (int phase = 0; phase < PHASES; phase++) {
+            for (int pattern = 0; pattern < PATTERN_COUNT; pattern++)
+                tables[phase][pattern] = new short[tableLength(PATTERNS[pattern].length)];
+        }
+        return tables;
+    }
+
+    private static int tableLength(int places) {
+        int length = 1;
+        for (int i = 0; i < places; i++)
+            length *= 3;
+        return length;
+    }
+
+    //************ Heuristic tables ****************//
+
+    // Worth of a disc on each place early in the game, in discs, for the places of one corner (col, row < 4)
+    private static final double[][] POSITIONAL = {
+            {  8.0, -1.5,  1.0,  0.5 },
+            { -1.5, -4.0, -0.25, -0.25 },
+            {  1.0, -0.25, 0.25, 0.0 },
+            {  0.5, -0.25, 0.0,  0.0 },
+    };
+    // Bonus in discs for each disc of an edge run from a corner, which can never be turned
+    private static final double STABLE = 1.0;
+
+    /**
+     * Returns tables that give each disc its positional worth, where the worth of the places next to a corner
+     * only counts while the corner is empty, and a bonus for the discs of edge runs from a corner. The positional
+     * worth fades into the disc count towards the end of the game. The worth of a place is shared among the
+     * patterns that cover it, so the sum over all patterns counts every disc once.
+     */
+    static PatternEval heuristic() {
+        int[] coverage = new int[64];
+        for (int[] instance : INSTANCES) {
+            for (int place : instance)
+                coverage[place]++;
+        }
+        short[][][] tables = newTables();
+        for (int pattern = 0; pattern < PATTERN_COUNT; pattern++) {
+            int[] places = PATTERNS[pattern];
+            int[] digits = new int[places.length];
+            for (int index = 0; index < tables[0][pattern].length; index++) {
+                for (int i = places.length - 1, n = index; i >= 0; i--, n /= 3)
+                    digits[i] = n % 3;
+                for (int phase = 0; phase < PHASES; phase++) {
+                    tables[phase][pattern][index] = (short) heuristicScore(pattern, digits, coverage,
+                            Math.min(1.0, phase * 5 / 60.0));
+                }
+            }
+        }
+        return new PatternEval(tables);
+    }
+
+    // The score of the discs of one pattern in 1/SCALE discs for black, where opening is 1 early and 0 at the end.
+    // The worth of each disc is rounded on its own, so the score does not depend on the order of the places.
+    private static int heuristicScore(int pattern, int[] digits, int[] coverage, double opening) {
+        int[] places = PATTERNS[pattern];
+        int score = 0;
+        for (int i = 0; i < places.length; i++) {
+            if (digits[i] == 0)
+                continue;
+            int col = places[i] / 8;
+            int row = places[i] % 8;
+            double positional = POSITIONAL[Math.min(col, 7 - col)][Math.min(row, 7 - row)];
+            int corner = nearestCorner(col, row);
+            int cornerDigit = digitOf(places, digits, corner);
+            boolean nextToCorner = Math.max(Math.abs(corner / 8 - col), Math.abs(corner % 8 - row)) == 1;
+            if (nextToCorner && cornerDigit > 0)
+                positional = 1;     // The corner is taken, so the place no longer gives it away
+            int worth = (int) Math.rint(SCALE * (opening * positional + (1 - opening)) / coverage[places[i]]);
+            score += digits[i] == 1 ? worth : -worth;
+        }
+        // Edge runs are only judged by the edge pattern, which holds a whole edge in its first 8 digits
+        if (pattern == EDGE) {
+            int run = edgeRun(digits, 0, 1);
+            if (Math.abs(run) < 7)  // Otherwise the run reaches the other corner and is counted already
+                run += edgeRun(digits, 7, -1);
+            score += (int) Math.rint(SCALE * STABLE * run);
+        }
+        return score;
+    }
+
+    // The discs of the edge run from the corner at the given digit, not counting the corner, positive for black
+    private static int edgeRun(int[] digits, int corner, int step) {
+        int owner = digits[corner];
+        if (owner == 0)
+            return 0;
+        int run = 0;
+        for (int i = corner + step; i >= 0 && i < 8 && digits[i] == owner; i += step)
+            run++;
+        return owner == 1 ? run : -run;
+    }
+
+    private static int nearestCorner(int col, int row) {
+        return (col < 4 ? 0 : 7) * 8 + (row < 4 ? 0 : 7);
+    }
+
+    // The digit of the given place in the pattern, or -1 if the pattern does not cover the place
+    private static int digitOf(int[] places, int[] digits, int place) {
+        for (int i = 0; i < places.length; i++) {
+            if (places[i] == place)
+                return digits[i];
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the heuristic tables to a file.
+     * Usage: java PatternEval [file]
+     */
+    public static void main(String[] args) throws IOException {
+        String file = args.length > 0 ? args[0] : DEFAULT_FILE;
+        heuristic().save(file);
+        System.out.println("Wrote the heuristic pattern tables to " + file);
+    }
+}
@@ -0,0 +1,146 @@
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Counts the leaf nodes of the game tree to a fixed depth (perft), as a check of the move generation of GameState
+ * and a measure of its speed. The tree is generated with legalMoves and insertToken only. A player without
+ * legal moves passes, which counts as a ply, and a finished game is a leaf at any depth.
+ *
+ * The root moves are counted in parallel. With the hash option, counts of subtrees are stored by the hash of their
+ * state, so subtrees reached by transposed moves are counted only once.
+ * Usage: java Perft [depth] [-size n] [-moves "c4 e3 ..."] [-threads n] [-hash] [-divide]
+ */
+public class Perft {
+    // Counts from the start position of the 8x8 board, by depth
+    private static final long[] REFERENCE_8X8 = {
+            1L, 4L, 12L, 56L, 244L, 1396L, 8200L, 55092L, 390216L, 3005288L, 24571284L, 212258800L, 1939886636L,
+            18429641748L, 184042084512L
+    };
+
+    private static final int HASH_BITS = 22;
+
+    // Table of subtree counts, two longs per slot: the key (hash and depth) xor'ed with the count, and the count.
+    // A slot read while another thread writes it fails the key check, as in TranspositionTable.
+    private final long[] table;
+
+    /**
+     * @param hash Whether to count transposed subtrees once
+     */
+    public Perft(boolean hash) {
+        table = hash ? new long[2 << HASH_BITS] : null;
+    }
+
+    /**
+     * Returns the number of leaf nodes at the given depth below the state.
+     */
+    public long count(GameState s, int depth) {
+        if (depth == 0)
+            return 1;
+        ArrayList<Position> moves = s.legalMoves();
+        if (moves.isEmpty()) {
+            GameState passed = new GameState(s);
+            passed.changePlayer();
+            if (passed.legalMoves().isEmpty()) // The game is finished
+                return 1;
+            return count(passed, depth - 1);
+        }
+        if (depth == 1)
+            return moves.size();
+
+        long key = 0;
+        if (table != null) {
+            key = s.hash() ^ depth * 0x9E3779B97F4A7C15L;
+            int i = 2 * ((int) key & ((1 << HASH_BITS) - 1));
+            long count = table[i + 1];
+            if (count != 0 && (table[i] ^ count) == key)
+                return count;
+        }
+
+        long count = 0;
+        for (Position p : moves) {
+            GameState next = new GameState(s);
+            next.insertToken(p);
+            count += count(next, depth - 1);
+        }
+
+        if (table != null) {
+            int i = 2 * ((int) key & ((1 << HASH_BITS) - 1));
+            table[i] = key ^ count;
+            table[i + 1] = count;
+        }
+        return count;
+    }
+
+    /**
+     * Counts the leaf nodes below each root move on its own thread, and returns the counts in the order of
+     * legalMoves. If the player in turn has to pass, the only root move is the pass.
+     */
+    public long[] divide(GameState s, int depth, int threads) throws InterruptedException {
+        ArrayList<Position> moves = s.legalMoves();
+        if (depth == 0 || moves.isEmpty())
+            return new long[]{ count(s, depth) };
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Future<Long>> results = new ArrayList<>();
+            for (Position p : moves) {
+                GameState next = new GameState(s);
+                next.insertToken(p);
+                results.add(pool.submit(() -> count(next, depth - 1)));
+            }
+            long[] counts = new long[moves.size()];
+            for (int i = 0; i < counts.length; i++)
+                counts[i] = results.get(i).get();
+            return counts;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Perft thread failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int depth = 9;
+        int size = 8;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String moves = "";
+        boolean hash = false;
+        boolean divide = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-size": size = Integer.parseInt(args[++i]); break;
+                case "-moves": moves = args[++i]; break;
+                case "-threads": threads = Integer.parseInt(args[++i]); break;
+                case "-hash": hash = true; break;
+                case "-divide": divide = true; break;
+                default: depth = Integer.parseInt(args[i]);
+            }
+        }
+
+        GameState s = Tournament.playMoves(moves, size);
+        ArrayList<Position> rootMoves = s.legalMoves();
+        long start = System.nanoTime();
+        long[] counts = new Perft(hash).divide(s, depth, threads);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            total += counts[i];
+            if (divide)
+                System.out.println((counts.length == rootMoves.size() ? rootMoves.get(i).toString() : "-") + "\t" + counts[i]);
+        }
+        System.out.printf("Depth %d: %d nodes in %.3f seconds, %.0f nodes/s%n", depth, total, seconds, total / seconds);
+
+        if (size == 8 && moves.trim().isEmpty() && depth < REFERENCE_8X8.length) {
+            if (total == REFERENCE_8X8[depth]) {
+                System.out.println("Matches the reference count");
+            } else {
+                System.out.println("Does not match the reference count " + REFERENCE_8X8[depth]);
+                System.exit(1);
+            }
+        }
+    }
+}
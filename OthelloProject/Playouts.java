@@ -0,0 +1,401 @@
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plays random games to the end from a given state, e.g. to estimate the chance of winning of a position or for the
+ * playouts of OthelloAIMCTS. A Playouts object plays one game at a time on a board of its own, so the state it is
+ * given is not changed and no move allocates anything; it should be used by one thread only. run() plays many
+ * games on several threads and returns their statistics.
+ *
+ * 8x8 games are played on bitboards. Other sizes are played on an array with a border around the board, so the
+ * walks from a place need no bounds checks, and with a list of the frontier: the empty places next to a token,
+ * which are the only ones that can be legal. A move is chosen by trying a few random places of the frontier, which
+ * gives each legal move the same chance, and by listing all legal moves if they fail.
+ *
+ * The games can be lightly biased: a legal corner is always taken, and a place next to an empty corner on its
+ * diagonal is only played if there is nothing else.
+ */
+public class Playouts {
+    private static final int TRIALS = 8;            // Random places of the frontier tried before all are listed
+    private static final int BORDER = 3;
+
+    private static final long CORNERS = 0x8100000000000081L;
+
+    private final int size;
+    private final boolean biased;
+    private final SplittableRandom random;
+    private int plies;                              // Moves and passes of the last game
+
+    // The board of a game on sizes other than 8x8, with a border: place (col, row) is cell (col+1)*width + row+1
+    private final int width;
+    private final int[] cells;
+    private final int[] directions;
+    private final int[] frontier;                   // The empty cells next to a token, in no order
+    private final int[] frontierIndex;              // The index of each cell in frontier, or -1
+    private int frontierCount;
+    private final int[] legal;
+    private final int[] corners;                    // The corner cells
+    private final int[] xCells;                     // The cell diagonally next to each corner
+
+    /**
+     * @param size The board size of the states that will be played from
+     * @param biased Whether the games are lightly biased (see above)
+     * @param random The random numbers of the games
+     */
+    public Playouts(int size, boolean biased, SplittableRandom random) {
+        this.size = size;
+        this.biased = biased;
+        this.random = random;
+        width = size + 2;
+        cells = new int[width * width];
+        directions = new int[]{ -width - 1, -width, -width + 1, -1, 1, width - 1, width, width + 1 };
+        frontier = new int[size * size];
+        frontierIndex = new int[width * width];
+        legal = new int[size * size];
+        corners = new int[]{ cell(0, 0), cell(0, size - 1), cell(size - 1, 0), cell(size - 1, size - 1) };
+        xCells = new int[]{ cell(1, 1), cell(1, size - 2), cell(size - 2, 1), cell(size - 2, size - 2) };
+    }
+
+    /**
+     * Plays a game from the state to the end, and returns the number of tokens of black minus that of white at
+     * the end. The state is not changed.
+     */
+    public int play(GameState s) {
+        if (s.isBitboard())
+            return playBitboard(s.own(), s.opponent(), s.getPlayerInTurn() == 1);
+        return playCells(s);
+    }
+
+    /**
+     * Returns the number of moves and passes of the last game.
+     */
+    public int getPlies() {
+        return plies;
+    }
+
+    private int playBitboard(long own, long opponent, boolean blackToMove) {
+        int plies = 0;
+        while (true) {
+            long moves = BitBoard.moves(own, opponent);
+            if (moves == 0) {
+                if (BitBoard.moves(opponent, own) == 0)
+                    break;
+            } else {
+                if (biased)
+                    moves = bias(moves, own | opponent);
+                for (int skip = random.nextInt(Long.bitCount(moves)); skip > 0; skip--)
+                    moves &= moves - 1;
+                int square = Long.numberOfTrailingZeros(moves);
+                long flipped = BitBoard.flips(own, opponent, square);
+                own |= flipped | 1L << square;
+                opponent &= ~flipped;
+            }
+            long t = own;
+            own = opponent;
+            opponent = t;
+            blackToMove = !blackToMove;
+            plies++;
+        }
+        this.plies = plies;
+        int difference = Long.bitCount(own) - Long.bitCount(opponent);
+        return blackToMove ? difference : -difference;
+    }
+
+    // The legal corners if any, otherwise the moves that are not next to an empty corner if any
+    private static long bias(long moves, long taken) {
+        if ((moves & CORNERS) != 0)
+            return moves & CORNERS;
+        long avoided = 0;
+        if ((taken & 1L) == 0)
+            avoided |= 1L << 9;
+        if ((taken & 1L << 7) == 0)
+            avoided |= 1L << 14;
+        if ((taken & 1L << 56) == 0)
+            avoided |= 1L << 49;
+        if ((taken & 1L << 63) == 0)
+            avoided |= 1L << 54;
+        return (moves & ~avoided) != 0 ? moves & ~avoided : moves;
+    }
+
+    private int playCells(GameState s) {
+        int[][] board = s.getBoard();
+        int black = 0;
+        int white = 0;
+        for (int i = 0; i < cells.length; i++)
+            cells[i] = BORDER;
+        for (int col = 0; col < size; col++) {
+            for (int row = 0; row < size; row++) {
+                int v = board[col][row];
+                cells[cell(col, row)] = v;
+                black += v & 1;
+                white += v >> 1;
+            }
+        }
+        frontierCount = 0;
+        for (int col = 0; col < size; col++) {
+            for (int row = 0; row < size; row++) {
+                int cell = cell(col, row);
+                frontierIndex[cell] = -1;
+                if (cells[cell] == 0 && hasTokenNext(cell)) {
+                    frontierIndex[cell] = frontierCount;
+                    frontier[frontierCount++] = cell;
+                }
+            }
+        }
+
+        int player = s.getPlayerInTurn();
+        int passes = 0;
+        int plies = 0;
+        while (passes < 2 && frontierCount > 0) {
+            int cell = chooseMove(player);
+            if (cell < 0) {
+                passes++;
+            } else {
+                int flipped = put(cell, player);
+                if (player == 1) {
+                    black += flipped + 1;
+                    white -= flipped;
+                } else {
+                    white += flipped + 1;
+                    black -= flipped;
+                }
+                passes = 0;
+            }
+            player = 3 - player;
+            plies++;
+        }
+        this.plies = plies - passes;     // Without the passes that ended the game
+        return black - white;
+    }
+
+    // Returns a random legal cell for the player, or -1 if there is none
+    private int chooseMove(int player) {
+        if (biased) {
+            for (int corner : corners) {
+                if (cells[corner] == 0 && isLegal(corner, player))
+                    return corner;
+            }
+        }
+        if (frontierCount > TRIALS) {
+            for (int i = 0; i < TRIALS; i++) {
+                int cell = frontier[random.nextInt(frontierCount)];
+                if (isLegal(cell, player) && !(biased && isAvoided(cell)))
+                    return cell;
+            }
+        }
+        int count = 0;
+        int avoided = 0;
+        for (int i = 0; i < frontierCount; i++) {
+            int cell = frontier[i];
+            if (isLegal(cell, player)) {
+                // The avoided cells are kept at the end of legal
+                if (biased && isAvoided(cell))
+                    legal[legal.length - ++avoided] = cell;
+                else
+                    legal[count++] = cell;
+            }
+        }
+        if (count > 0)
+            return legal[random.nextInt(count)];
+        if (avoided > 0)
+            return legal[legal.length - 1 - random.nextInt(avoided)];
+        return -1;
+    }
+
+    private boolean isAvoided(int cell) {
+        for (int i = 0; i < xCells.length; i++) {
+            if (cell == xCells[i] && cells[corners[i]] == 0)
+                return true;
+        }
+        return false;
+    }
+
+    private boolean isLegal(int cell, int player) {
+        int opponent = 3 - player;
+        for (int d : directions) {
+            int next = cell + d;
+            if (cells[next] != opponent)
+                continue;
+            do {
+                next += d;
+            } while (cells[next] == opponent);
+            if (cells[next] == player)
+                return true;
+        }
+        return false;
+    }
+
+    // Puts a token of the player on the empty cell, and returns the number of tokens turned
+    private int put(int cell, int player) {
+        int opponent = 3 - player;
+        int flipped = 0;
+        for (int d : directions) {
+            int next = cell + d;
+            if (cells[next] != opponent)
+                continue;
+            do {
+                next += d;
+            } while (cells[next] == opponent);
+            if (cells[next] == player) {
+                for (int c = cell + d; c != next; c += d) {
+                    cells[c] = player;
+                    flipped++;
+                }
+            }
+        }
+        cells[cell] = player;
+
+        // The cell leaves the frontier, and its empty neighbours join it
+        int last = frontier[--frontierCount];
+        frontier[frontierIndex[cell]] = last;
+        frontierIndex[last] = frontierIndex[cell];
+        frontierIndex[cell] = -1;
+        for (int d : directions) {
+            int next = cell + d;
+            if (cells[next] == 0 && frontierIndex[next] < 0) {
+                frontierIndex[next] = frontierCount;
+                frontier[frontierCount++] = next;
+            }
+        }
+        return flipped;
+    }
+
+    private boolean hasTokenNext(int cell) {
+        for (int d : directions) {
+            int v = cells[cell + d];
+            if (v == 1 || v == 2)
+                return true;
+        }
+        return false;
+    }
+
+    private int cell(int col, int row) {
+        return (col + 1) * width + row + 1;
+    }
+
+    /**
+     * Statistics of a number of games, counted from the view of black.
+     */
+    public static class Statistics {
+        long games;
+        long blackWins;
+        long draws;
+        long difference;            // Sum of the token differences
+        long squaredDifference;     // Sum of their squares
+        long plies;
+        double seconds;
+
+        void add(int difference, int plies) {
+            games++;
+            if (difference > 0)
+                blackWins++;
+            else if (difference == 0)
+                draws++;
+            this.difference += difference;
+            squaredDifference += (long) difference * difference;
+            this.plies += plies;
+        }
+
+        void add(Statistics other) {
+            games += other.games;
+            blackWins += other.blackWins;
+            draws += other.draws;
+            difference += other.difference;
+            squaredDifference += other.squaredDifference;
+            plies += other.plies;
+        }
+
+        public long getGames() {
+            return games;
+        }
+
+        /**
+         * Returns the score of the given player per game: 1 for a win, 0.5 for a draw and 0 for a loss.
+         */
+        public double score(int player) {
+            double black = (blackWins + draws / 2.0) / games;
+            return player == 1 ? black : 1 - black;
+        }
+
+        /**
+         * Returns the mean number of tokens of black minus that of white.
+         */
+        public double meanDifference() {
+            return (double) difference / games;
+        }
+
+        /**
+         * Returns the standard error of the mean difference.
+         */
+        public double differenceError() {
+            double mean = meanDifference();
+            double variance = (double) squaredDifference / games - mean * mean;
+            return Math.sqrt(Math.max(0, variance) / games);
+        }
+
+        public double perSecond() {
+            return games / seconds;
+        }
+
+        public String toString() {
+            long whiteWins = games - blackWins - draws;
+            return String.format("%d games in %.2f seconds, %.0f per second%n"
+                            + "Black wins %.1f%%, draws %.1f%%, white wins %.1f%%%n"
+                            + "Black minus white: %.2f +- %.2f tokens, %.1f plies per game",
+                    games, seconds, perSecond(), 100.0 * blackWins / games, 100.0 * draws / games,
+                    100.0 * whiteWins / games, meanDifference(), differenceError(), (double) plies / games);
+        }
+    }
+
+    /**
+     * Plays the given number of games from the state, split over the given number of threads.
+     * @param seed Seed of the random numbers, so the games can be played again
+     */
+    public static Statistics run(GameState s, long games, int threads, boolean biased, long seed) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        SplittableRandom random = new SplittableRandom(seed);
+        int size = s.getBoard().length;
+        long start = System.nanoTime();
+        try {
+            ArrayList<Future<Statistics>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                Playouts playouts = new Playouts(size, biased, random.split());
+                long count = games / threads + (i < games % threads ? 1 : 0);
+                results.add(pool.submit(() -> {
+                    Statistics statistics = new Statistics();
+                    for (long g = 0; g < count; g++)
+                        statistics.add(playouts.play(s), playouts.getPlies());
+                    return statistics;
+                }));
+            }
+            Statistics total = new Statistics();
+            for (Future<Statistics> result : results)
+                total.add(result.get());
+            total.seconds = (System.nanoTime() - start) / 1e9;
+            return total;
+        } catch (Exception e) {
+            throw new IllegalStateException("Playout thread failed", e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Plays random games from the start position and reports their statistics.
+     * Usage: java Playouts [size] [games] [threads] [-biased]
+     */
+    public static void main(String[] args) {
+        int size = args.length >= 1 ? Integer.parseInt(args[0]) : 8;
+        long games = args.length >= 2 ? Long.parseLong(args[1]) : 1_000_000;
+        int threads = args.length >= 3 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        boolean biased = args.length >= 4 && args[3].equals("-biased");
+        GameState s = new GameState(size, 1);
+
+        // Warm up the JIT compiler before measuring
+        run(s, Math.min(games, 100_000), threads, biased, 0);
+        System.out.println(run(s, games, threads, biased, 1));
+    }
+}
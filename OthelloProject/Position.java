@@ -23,6 +23,11 @@ public class Position{
         Position p = (Position) o;
         return p.row == this.row && p.col == this.col;
     }
+
+	@Override
+	public int hashCode(){
+		return 31*col + row;
+	}
 	
 	@Override
 	public String toString(){
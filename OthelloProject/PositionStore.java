@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Store on disk of results of deep searches and solved positions, so they are not searched again in later games,
+ * by this or by other processes. Each position is stored with its best move, the depth it was searched to (or
+ * SOLVED) and the value with the kind of bound it is, as in TranspositionTable.
+ *
+ * The store is a memory mapped file of a fixed number of slots of 16 bytes, in buckets of 4, after a header. As
+ * in TranspositionTable, a slot holds the key xor'ed with the data, so a slot read while another thread or
+ * process writes it counts as a miss, and the slots are read and written without locks. The file is locked only
+ * while it is created or opened. Each opening starts a new generation, and when a bucket is full the entry with
+ * the least depth, less its age in generations, is evicted.
+ *
+ * The engines use the default store, which is the file given by -Dothello.store=file, or else positions.store if
+ * it exists. Otherwise they work without a store. A store is created by running this class, see main.
+ */
+public class PositionStore {
+    public static final String DEFAULT_FILE = "positions.store";
+    public static final int SOLVED = 127;           // Depth of the positions solved to the end of the game
+
+    private static final int MAGIC = 0x50535431;    // "PST1"
+    private static final int HEADER = 64;           // Magic number, log2 of the number of slots and the generation
+    private static final int BUCKET = 4;            // Slots per bucket
+
+    private static PositionStore defaultStore;
+
+    private final MappedByteBuffer buffer;          // null for a store without a file
+    private final int bucketMask;
+    private final int generation;
+    private final LongAdder probes = new LongAdder();   // Counted by all threads probing the store
+    private final LongAdder hits = new LongAdder();
+
+    private PositionStore(MappedByteBuffer buffer, int log2Slots, int generation) {
+        this.buffer = buffer;
+        this.bucketMask = buffer == null ? 0 : (1 << log2Slots) / BUCKET - 1;
+        this.generation = generation;
+    }
+
+    /**
+     * Opens the given store, and creates it with 2^log2Slots slots if the file does not exist. The number of slots
+     * of an existing store is kept.
+     * @throws IOException if the file cannot be read or written or is not a store
+     */
+    public static PositionStore open(String file, int log2Slots) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            // Held while the header is read and the generation advanced, so two processes opening the store at
+            // the same time get different generations
+            FileLock lock = channel.lock();
+            try {
+                ByteBuffer header = ByteBuffer.allocate(12);
+                if (channel.size() == 0) {
+                    if (log2Slots < 2 || log2Slots > 26)
+                        throw new IOException("A store should have 2^2 to 2^26 slots");
+                    header.putInt(MAGIC).putInt(log2Slots).putInt(0).flip();
+                    channel.write(header, 0);
+                    channel.write(ByteBuffer.allocate(1), HEADER + (16L << log2Slots) - 1);
+                    header.clear();
+                }
+                channel.read(header, 0);
+                header.flip();
+                if (header.remaining() < 12 || header.getInt() != MAGIC)
+                    throw new IOException("Not a position store: " + file);
+                int slots = header.getInt();
+                int generation = (header.getInt() + 1) & 0x3F;
+                if (slots < 2 || slots > 26 || channel.size() < HEADER + (16L << slots))
+                    throw new IOException("Position store is truncated: " + file);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (16L << slots));
+                buffer.putInt(8, generation);
+                return new PositionStore(buffer, slots, generation);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Returns the default store (see above), or a store that keeps nothing if there is none.
+     */
+    public static synchronized PositionStore getDefault() {
+        if (defaultStore == null) {
+            String file = System.getProperty("othello.store");
+            if (file == null && Files.exists(Paths.get(DEFAULT_FILE)))
+                file = DEFAULT_FILE;
+            defaultStore = new PositionStore(null, 0, 0);
+            if (file != null) {
+                try {
+                    defaultStore = open(file, 20);
+                } catch (IOException e) {
+                    System.out.println("Could not open the position store: " + e.getMessage());
+                }
+            }
+        }
+        return defaultStore;
+    }
+
+    /**
+     * Returns the data stored for the state, or 0 if there is none. The fields are read with the static methods
+     * of TranspositionTable (move, depth, value and bound).
+     */
+    public long probe(GameState s) {
+        if (buffer == null)
+            return 0;
+        probes.increment();
+        long key = key(s);
+        int first = bucket(key);
+        for (int i = first; i < first + BUCKET; i++) {
+            long data = buffer.getLong(offset(i) + 8);
+            if (data != 0 && (buffer.getLong(offset(i)) ^ data) == key) {
+                hits.increment();
+                return data;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Stores a result for the state, unless a deeper one is stored already.
+     * @param move The best move as col*size+row
+     * @param depth The depth searched, or SOLVED
+     * @param value The value found
+     * @param bound TranspositionTable.EXACT, LOWER or UPPER
+     */
+    public void store(GameState s, int move, int depth, int value, int bound) {
+        if (buffer == null)
+            return;
+        long key = key(s);
+        int first = bucket(key);
+        int victim = first;
+        int victimPriority = Integer.MAX_VALUE;
+        for (int i = first; i < first + BUCKET; i++) {
+            long data = buffer.getLong(offset(i) + 8);
+            if (data != 0 && (buffer.getLong(offset(i)) ^ data) == key) {
+                if (TranspositionTable.depth(data) > depth)
+                    return;
+                victim = i;
+                break;
+            }
+            int priority = data == 0 ? Integer.MIN_VALUE
+                    : TranspositionTable.depth(data) - ((generation - TranspositionTable.generation(data)) & 0x3F);
+            if (priority < victimPriority) {
+                victim = i;
+                victimPriority = priority;
+            }
+        }
+        long data = TranspositionTable.pack(move, depth, value, bound, generation);
+        buffer.putLong(offset(victim), key ^ data);
+        buffer.putLong(offset(victim) + 8, data);
+    }
+
+    /**
+     * Returns the fraction of probes that found an entry.
+     */
+    public double getHitRate() {
+        long probed = probes.sum();
+        return probed == 0 ? 0 : (double) hits.sum() / probed;
+    }
+
+    /**
+     * Returns the number of used slots and the number of slots.
+     */
+    public long[] count() {
+        if (buffer == null)
+            return new long[]{ 0, 0 };
+        long slots = (bucketMask + 1L) * BUCKET;
+        long used = 0;
+        for (int i = 0; i < slots; i++) {
+            if (buffer.getLong(offset(i) + 8) != 0)
+                used++;
+        }
+        return new long[]{ used, slots };
+    }
+
+    // The hash of the state with the size of the board mixed in, since the hash does not tell sizes apart
+    private static long key(GameState s) {
+        return s.hash() ^ s.getBoard().length * 0x9E3779B97F4A7C15L;
+    }
+
+    private int bucket(long key) {
+        return (int) (key >>> 32 & bucketMask) * BUCKET;
+    }
+
+    private static int offset(int slot) {
+        return HEADER + 16 * slot;
+    }
+
+    /**
+     * Creates a store or reports on an existing one.
+     * Usage: java PositionStore [file] [log2Slots]
+     */
+    public static void main(String[] args) throws IOException {
+        String file = args.length > 0 ? args[0] : DEFAULT_FILE;
+        int log2Slots = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        Path path = Paths.get(file);
+        boolean existed = Files.exists(path);
+        PositionStore store = open(file, log2Slots);
+        long[] count = store.count();
+        System.out.printf("%s %s: %d of %d slots used, %d MB, generation %d%n", existed ? "Opened" : "Created",
+                file, count[0], count[1], Files.size(path) >> 20, store.generation);
+    }
+}
@@ -0,0 +1,247 @@
+import java.util.Arrays;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Counters of a search engine, to see where the time of a move goes: nodes, evaluated leaves, cutoffs, table hits
+ * and the nodes and time of each iteration of iterative deepening. The counters of the last move can be read
+ * from the engine, and with a Java Flight Recorder recording running each iteration and each move is also
+ * recorded as an event.
+ *
+ * Counting is off unless the JVM runs with -Dothello.stats=true. Engines only count inside
+ * {@code if (SearchStats.ENABLED)}, and since ENABLED is a constant the JIT compiler removes that code when it
+ * is off. A SearchStats is used by one thread at a time.
+ */
+public class SearchStats {
+    public static final boolean ENABLED = Boolean.getBoolean("othello.stats");
+
+    private static final int MAX_DEPTH = 64;
+
+    private final String engine;
+    private long nodes;             // Nodes visited
+    private long leaves;            // Nodes evaluated by the cut-off evaluation or at the end of the game
+    private long expanded;          // Nodes whose moves were searched
+    private long cutoffs;           // Expanded nodes where a move caused a cutoff
+    private long firstMoveCutoffs;  // Cutoffs by the first move searched
+    private long probes;            // Table probes
+    private long hits;              // Table probes that returned a value
+    private final long[] iterationNodes = new long[MAX_DEPTH + 1];
+    private final long[] iterationNanos = new long[MAX_DEPTH + 1];
+    private int completedDepth;
+    private long searchStart;
+    private long searchNanos;
+    private long iterationStart;
+    private long iterationStartNodes;
+    private IterationEvent iterationEvent;
+    private SearchEvent searchEvent;
+
+    public SearchStats(String engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Resets the counters for the search of a new move.
+     */
+    public void startSearch() {
+        nodes = leaves = expanded = cutoffs = firstMoveCutoffs = probes = hits = 0;
+        Arrays.fill(iterationNodes, 0);
+        Arrays.fill(iterationNanos, 0);
+        completedDepth = 0;
+        searchNanos = 0;
+        searchStart = System.nanoTime();
+        searchEvent = new SearchEvent();
+        searchEvent.begin();
+    }
+
+    public void node() {
+        nodes++;
+    }
+
+    public void leaf() {
+        leaves++;
+    }
+
+    public void expanded() {
+        expanded++;
+    }
+
+    /**
+     * Counts a cutoff by the move with the given index in the order the moves were searched.
+     */
+    public void cutoff(int moveIndex) {
+        cutoffs++;
+        if (moveIndex == 0)
+            firstMoveCutoffs++;
+    }
+
+    public void probe(boolean hit) {
+        probes++;
+        if (hit)
+            hits++;
+    }
+
+    public void startIteration(int depth) {
+        iterationStart = System.nanoTime();
+        iterationStartNodes = nodes;
+        iterationEvent = new IterationEvent();
+        iterationEvent.begin();
+    }
+
+    /**
+     * Records an iteration that finished. Iterations cut off by the deadline are not recorded.
+     */
+    public void endIteration(int depth) {
+        if (depth > MAX_DEPTH)
+            return;
+        iterationNodes[depth] = nodes - iterationStartNodes;
+        iterationNanos[depth] = System.nanoTime() - iterationStart;
+        completedDepth = depth;
+        if (iterationEvent.shouldCommit()) {
+            iterationEvent.engine = engine;
+            iterationEvent.depth = depth;
+            iterationEvent.nodes = iterationNodes[depth];
+            iterationEvent.branchingFactor = getBranchingFactor(depth);
+            iterationEvent.commit();
+        }
+    }
+
+    public void endSearch() {
+        searchNanos = System.nanoTime() - searchStart;
+        SearchEvent event = searchEvent;
+        if (event.shouldCommit()) {
+            event.engine = engine;
+            event.depth = completedDepth;
+            event.nodes = nodes;
+            event.leaves = leaves;
+            event.nodesPerSecond = getNodesPerSecond();
+            event.cutoffRate = getCutoffRate();
+            event.firstMoveCutoffRate = getFirstMoveCutoffRate();
+            event.hitRate = getHitRate();
+            event.commit();
+        }
+    }
+
+    /**
+     * Adds the counters of another search of the same move, such as another thread of a parallel search.
+     */
+    public void add(SearchStats other) {
+        nodes += other.nodes;
+        leaves += other.leaves;
+        expanded += other.expanded;
+        cutoffs += other.cutoffs;
+        firstMoveCutoffs += other.firstMoveCutoffs;
+        probes += other.probes;
+        hits += other.hits;
+        for (int depth = 0; depth <= MAX_DEPTH; depth++) {
+            iterationNodes[depth] += other.iterationNodes[depth];
+            iterationNanos[depth] = Math.max(iterationNanos[depth], other.iterationNanos[depth]);
+        }
+        completedDepth = Math.max(completedDepth, other.completedDepth);
+        searchNanos = Math.max(searchNanos, other.searchNanos);
+    }
+
+    //************ Results ****************//
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getLeaves() {
+        return leaves;
+    }
+
+    public double getNodesPerSecond() {
+        return searchNanos == 0 ? 0 : nodes * 1e9 / searchNanos;
+    }
+
+    /**
+     * Returns the fraction of expanded nodes where a move caused a cutoff.
+     */
+    public double getCutoffRate() {
+        return expanded == 0 ? 0 : (double) cutoffs / expanded;
+    }
+
+    /**
+     * Returns the fraction of cutoffs caused by the first move searched, which tells how good the move ordering is.
+     */
+    public double getFirstMoveCutoffRate() {
+        return cutoffs == 0 ? 0 : (double) firstMoveCutoffs / cutoffs;
+    }
+
+    public double getHitRate() {
+        return probes == 0 ? 0 : (double) hits / probes;
+    }
+
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    /**
+     * Returns the effective branching factor of the given depth: the nodes of its iteration divided by the nodes
+     * of the iteration before, or 0 if either is unknown.
+     */
+    public double getBranchingFactor(int depth) {
+        if (depth < 2 || depth > MAX_DEPTH || iterationNodes[depth - 1] == 0)
+            return 0;
+        return (double) iterationNodes[depth] / iterationNodes[depth - 1];
+    }
+
+    public double getIterationMillis(int depth) {
+        return depth > MAX_DEPTH ? 0 : iterationNanos[depth] / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%s: %d nodes, %d leaves, %.0f nodes/s, cutoffs %.1f%% (first move %.1f%%), "
+                        + "table hits %.1f%%", engine, nodes, leaves, getNodesPerSecond(), 100 * getCutoffRate(),
+                100 * getFirstMoveCutoffRate(), 100 * getHitRate()));
+        for (int depth = 1; depth <= completedDepth; depth++) {
+            if (iterationNodes[depth] != 0)
+                sb.append(String.format("%n  depth %d: %d nodes, branching factor %.2f, %.1f ms", depth,
+                        iterationNodes[depth], getBranchingFactor(depth), getIterationMillis(depth)));
+        }
+        return sb.toString();
+    }
+
+    //************ Flight Recorder events ****************//
+
+    @Name("othello.SearchIteration")
+    @Label("Search Iteration")
+    @Category("Othello")
+    static class IterationEvent extends Event {
+        @Label("Engine")
+        String engine;
+        @Label("Depth")
+        int depth;
+        @Label("Nodes")
+        long nodes;
+        @Label("Branching Factor")
+        double branchingFactor;
+    }
+
+    @Name("othello.Search")
+    @Label("Search")
+    @Category("Othello")
+    static class SearchEvent extends Event {
+        @Label("Engine")
+        String engine;
+        @Label("Depth")
+        int depth;
+        @Label("Nodes")
+        long nodes;
+        @Label("Leaves")
+        long leaves;
+        @Label("Nodes per Second")
+        double nodesPerSecond;
+        @Label("Cutoff Rate")
+        double cutoffRate;
+        @Label("First Move Cutoff Rate")
+        double firstMoveCutoffRate;
+        @Label("Table Hit Rate")
+        double hitRate;
+    }
+}
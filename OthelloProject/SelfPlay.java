@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays games between two AIs on many threads and writes them to a game file (see GameFile), e.g. to tune the
+ * evaluation on. Each game starts with a number of random moves, from a random generator seeded by the seed and
+ * the number of the game, so a run can be repeated. The AIs change colours from game to game. A game that repeats
+ * the moves of an earlier game of the run is not written, and neither is a game with an illegal move.
+ *
+ * Every thread has its own instances of the AIs and plays games until all have been played, and the games are
+ * written as they end, so the number of games is not limited by memory. Output from the AIs is suppressed.
+ */
+public class SelfPlay {
+    private final String ai1;
+    private final String ai2;
+    private final int size;
+    private final long games;
+    private final int threads;
+    private final int plies;            // Random moves at the start of each game
+    private final long seed;
+    private final long timeLimit;       // Milliseconds per move given to the AIs, or -1 for their default
+
+    private final AtomicLong nextGame = new AtomicLong();
+    private final AtomicLong forfeits = new AtomicLong();
+    private final GameFile.Seen seen = new GameFile.Seen();
+    private long written;               // Guarded by the writer, like seen and the counts below
+    private long duplicates;
+    private long blackWins;
+    private long draws;
+
+    public SelfPlay(String ai1, String ai2, int size, long games, int threads, int plies, long seed, long timeLimit) {
+        this.ai1 = ai1;
+        this.ai2 = ai2;
+        this.size = size;
+        this.games = games;
+        this.threads = threads;
+        this.plies = plies;
+        this.seed = seed;
+        this.timeLimit = timeLimit;
+    }
+
+    /**
+     * Plays the games, writes them with the given writer and prints progress and a summary to the given stream.
+     */
+    public void run(GameFile.Writer writer, PrintStream out) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "SelfPlay game");
+            t.setDaemon(true);
+            return t;
+        });
+        long start = System.nanoTime();
+        long reportEvery = Math.max(1, games / 10);
+        ArrayList<Future<Void>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(pool.submit(() -> {
+                playGames(writer, out, reportEvery);
+                return null;
+            }));
+        }
+        try {
+            for (Future<Void> result : results)
+                result.get();
+        } catch (ExecutionException e) {
+            nextGame.set(games);    // The other threads stop after their current game
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IllegalStateException("Game failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.println();
+        out.printf("%s vs %s, %dx%d: %d games in %.1f seconds, %.1f per second%n", ai1, ai2, size, size, games,
+                seconds, games / seconds);
+        out.printf("Written %d, repeated %d, forfeited by an illegal move %d%n", written, duplicates, forfeits.get());
+        if (written > 0)
+            out.printf("Black wins %.1f%%, draws %.1f%%, white wins %.1f%%%n", 100.0 * blackWins / written,
+                    100.0 * draws / written, 100.0 * (written - blackWins - draws) / written);
+    }
+
+    private void playGames(GameFile.Writer writer, PrintStream out, long reportEvery) throws IOException {
+        IOthelloAI[] ais = { newAI(ai1, timeLimit), newAI(ai2, timeLimit) };
+        GameFile.Game game = new GameFile.Game();
+        long index;
+        while ((index = nextGame.getAndIncrement()) < games) {
+            if (!play(index, ais, game)) {
+                forfeits.incrementAndGet();
+                continue;
+            }
+            synchronized (writer) {
+                if (!seen.add(game)) {
+                    duplicates++;
+                    continue;
+                }
+                writer.write(game);
+                written++;
+                if (game.result > 0)
+                    blackWins++;
+                else if (game.result == 0)
+                    draws++;
+                if (written % reportEvery == 0)
+                    out.println(written + " written, " + duplicates + " repeated");
+            }
+        }
+    }
+
+    /**
+     * Plays the game with the given number into game, and returns false if an AI made an illegal move.
+     */
+    private boolean play(long index, IOthelloAI[] ais, GameFile.Game game) {
+        SplittableRandom random = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + index);
+        IOthelloAI black = ais[(int) (index % 2)];
+        IOthelloAI white = ais[(int) (1 - index % 2)];
+        GameState s = new GameState(size, 1);
+        game.clear(size);
+        for (int i = 0; i < plies && !s.isFinished(); i++) {
+            ArrayList<Position> moves = s.legalMoves();
+            if (moves.isEmpty()) {
+                s.changePlayer();
+                continue;
+            }
+            Position move = moves.get(random.nextInt(moves.size()));
+            s.insertToken(move);
+            game.add(move.col * size + move.row);
+        }
+        game.openingMoves = game.count;
+
+        while (!s.isFinished()) {
+            if (s.mustPass()) {
+                s.changePlayer();
+                continue;
+            }
+            Position move = (s.getPlayerInTurn() == 1 ? black : white).decideMove(s);
+            if (move == null || !s.insertToken(move))
+                return false;
+            game.add(move.col * size + move.row);
+        }
+        int[] tokens = s.countTokens();
+        game.result = tokens[0] - tokens[1];
+        return true;
+    }
+
+    /**
+     * Creates the AI with the given class name, with the given time limit per move if it is not -1, which needs
+     * a constructor taking the time limit in milliseconds as a long.
+     */
+    static IOthelloAI newAI(String name, long timeLimit) {
+        if (timeLimit < 0)
+            return Tournament.newAI(name);
+        try {
+            return (IOthelloAI) Class.forName(name).getConstructor(long.class).newInstance(timeLimit);
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Could not create " + name + " with a time limit: " + e, e);
+        }
+    }
+
+    //************ Command line ****************//
+
+    /**
+     * Usage: java SelfPlay ai1 ai2 games file [-size n] [-threads n] [-plies n] [-seed n] [-time ms] [-append]
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 4) {
+            printHelp("You need to supply at least four arguments");
+            System.exit(1);
+        }
+        long games = 0;
+        int size = 8;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int plies = 8;
+        long seed = 1;
+        long timeLimit = -1;
+        boolean append = false;
+        try {
+            games = Long.parseLong(args[2]);
+            for (int i = 4; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-size": size = Integer.parseInt(args[++i]); break;
+                    case "-threads": threads = Integer.parseInt(args[++i]); break;
+                    case "-plies": plies = Integer.parseInt(args[++i]); break;
+                    case "-seed": seed = Long.parseLong(args[++i]); break;
+                    case "-time": timeLimit = Long.parseLong(args[++i]); break;
+                    case "-append": append = true; break;
+                    default:
+                        printHelp("Unknown option: " + args[i]);
+                        System.exit(1);
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            printHelp("Could not parse the options: " + e.getMessage());
+            System.exit(1);
+        }
+        if (size < 4 || size % 2 != 0) {
+            printHelp("Board size should be an even number greater than 2");
+            System.exit(1);
+        }
+        if (plies < 0 || plies > 255) {
+            printHelp("The number of random moves should be 0 to 255");
+            System.exit(1);
+        }
+
+        try {
+            newAI(args[0], timeLimit);
+            newAI(args[1], timeLimit);
+        } catch (IllegalArgumentException e) {
+            printHelp(e.getMessage());
+            System.exit(1);
+        }
+
+        SelfPlay selfPlay = new SelfPlay(args[0], args[1], size, games, threads, plies, seed, timeLimit);
+        // The AIs print details of their search for every move
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try (GameFile.Writer writer = new GameFile.Writer(args[3], size, append)) {
+            selfPlay.run(writer, out);
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    public static void printHelp(String errMsg) {
+        if (!errMsg.equals(""))
+            System.err.println(errMsg);
+        System.err.println("Usage: java SelfPlay ai1 ai2 games file [options]");
+        System.err.println("\tai1, ai2\t - OthelloAI classes implementing IOthelloAI. They change colours every game.");
+        System.err.println("\tgames\t\t - The number of games to play.");
+        System.err.println("\tfile\t\t - The game file to write, see GameFile.");
+        System.err.println("\t-size n\t\t - The size of the board. Defaults to 8.");
+        System.err.println("\t-threads n\t - The number of games played at the same time. Defaults to the number of cores.");
+        System.err.println("\t-plies n\t - The number of random moves at the start of each game. Defaults to 8.");
+        System.err.println("\t-seed n\t\t - Seed of the random moves. Defaults to 1.");
+        System.err.println("\t-time ms\t - Time per move given to the AIs, by their constructor taking a long.");
+        System.err.println("\t-append\t\t - Add the games to the file rather than replacing it.");
+    }
+}
@@ -0,0 +1,452 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Plays a match between two AIs without the GUI, with many games at the same time.
+ *
+ * Games are played in pairs from the same opening, with each AI playing black once. The openings are either a
+ * number of random moves or the lines of an openings file. The result is given from the view of the first AI:
+ * wins, draws and losses, an Elo difference with a 95% confidence interval and the time the AIs took per move.
+ * The match can stop early when a sequential probability ratio test (SPRT) decides between two Elo differences.
+ *
+ * Every thread has its own instances of the AIs, which are reused for its games.
+ * Output from the AIs is suppressed while the match is played.
+ */
+public class Tournament {
+    private static final double SPRT_ALPHA = 0.05;   // Chance of accepting elo1 if elo0 is true
+    private static final double SPRT_BETA = 0.05;    // Chance of accepting elo0 if elo1 is true
+
+    private final String ai1;
+    private final String ai2;
+    private final int size;
+    private final ArrayList<GameState> openings;      // Pairs of games start from each opening
+    private final int games;
+    private final int threads;
+    private final boolean sprt;
+    private final double elo0;
+    private final double elo1;
+
+    private volatile boolean stopped;                 // Set when the SPRT has decided, so no new games start
+    private final ThreadLocal<IOthelloAI[]> players;
+
+    // Statistics from the view of ai1, updated by the main thread only
+    private int wins, draws, losses, illegalMoves, played;
+    private final Latencies latencies1 = new Latencies();
+    private final Latencies latencies2 = new Latencies();
+
+    /**
+     * @param ai1 Class name of the first AI
+     * @param ai2 Class name of the second AI
+     * @param size The size of the board
+     * @param openings The opening positions, played twice each with colours reversed
+     * @param games The number of games to play
+     * @param threads The number of games to play at the same time
+     * @param elo0 The Elo difference of the null hypothesis of the SPRT, or NaN for no SPRT
+     * @param elo1 The Elo difference of the alternative hypothesis of the SPRT
+     */
+    public Tournament(String ai1, String ai2, int size, ArrayList<GameState> openings, int games, int threads,
+                      double elo0, double elo1) {
+        this.ai1 = ai1;
+        this.ai2 = ai2;
+        this.size = size;
+        this.openings = openings;
+        this.games = games;
+        this.threads = threads;
+        this.sprt = !Double.isNaN(elo0);
+        this.elo0 = elo0;
+        this.elo1 = elo1;
+        players = ThreadLocal.withInitial(() -> new IOthelloAI[]{ newAI(this.ai1), newAI(this.ai2) });
+    }
+
+    /**
+     * Plays the match and prints progress and the final report to the given stream.
+     */
+    public void run(PrintStream out) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "Tournament game");
+            t.setDaemon(true);
+            return t;
+        });
+        CompletionService<Result> results = new ExecutorCompletionService<>(pool);
+        for (int game = 0; game < games; game++) {
+            GameState opening = openings.get((game / 2) % openings.size());
+            boolean ai1IsBlack = game % 2 == 0;
+            results.submit(() -> stopped ? null : play(opening, ai1IsBlack));
+        }
+
+        int reportEvery = Math.max(1, games / 10);
+        for (int i = 0; i < games && !stopped; i++) {
+            Result result;
+            try {
+                result = results.take().get();
+            } catch (ExecutionException e) {
+                pool.shutdownNow();
+                throw new IllegalStateException("Game failed", e.getCause());
+            }
+            if (result == null)
+                continue;
+            add(result);
+            if (sprt && sprtDecision() != 0)
+                stopped = true;
+            if (played % reportEvery == 0 && !stopped)
+                out.println(played + "/" + games + ": " + summary());
+        }
+        pool.shutdownNow();
+        report(out);
+    }
+
+    //************ Playing ****************//
+
+    private Result play(GameState opening, boolean ai1IsBlack) {
+        IOthelloAI[] ais = players.get();
+        IOthelloAI black = ai1IsBlack ? ais[0] : ais[1];
+        IOthelloAI white = ai1IsBlack ? ais[1] : ais[0];
+        Latencies blackTimes = new Latencies();
+        Latencies whiteTimes = new Latencies();
+
+        GameState s = new GameState(opening);
+        int forfeit = 0;    // The player who made an illegal move
+        while (!s.isFinished()) {
+            if (s.mustPass()) {
+                s.changePlayer();
+                continue;
+            }
+            int player = s.getPlayerInTurn();
+            long start = System.nanoTime();
+            Position move = (player == 1 ? black : white).decideMove(s);
+            (player == 1 ? blackTimes : whiteTimes).add(System.nanoTime() - start);
+            if (move == null || !s.insertToken(move)) {
+                forfeit = player;
+                break;
+            }
+        }
+
+        int[] tokens = s.countTokens();
+        int blackScore;     // 2 for a black win, 1 for a draw, 0 for a white win
+        if (forfeit != 0)
+            blackScore = forfeit == 1 ? 0 : 2;
+        else
+            blackScore = Integer.compare(tokens[0], tokens[1]) + 1;
+        return new Result(ai1IsBlack ? blackScore : 2 - blackScore, forfeit != 0,
+                ai1IsBlack ? blackTimes : whiteTimes, ai1IsBlack ? whiteTimes : blackTimes);
+    }
+
+    static IOthelloAI newAI(String name) {
+        try {
+            IOthelloAI ai = Othello.parseGameLogicParam(name);
+            if (ai == null)
+                throw new IllegalArgumentException("A tournament cannot have human players");
+            return ai;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Could not create " + name + ": " + e, e);
+        }
+    }
+
+    /**
+     * The result of one game from the view of ai1.
+     */
+    private static class Result {
+        final int score;            // 2 for a win, 1 for a draw, 0 for a loss
+        final boolean illegalMove;  // Whether the game was decided by an illegal move
+        final Latencies times1;
+        final Latencies times2;
+
+        Result(int score, boolean illegalMove, Latencies times1, Latencies times2) {
+            this.score = score;
+            this.illegalMove = illegalMove;
+            this.times1 = times1;
+            this.times2 = times2;
+        }
+    }
+
+    //************ Statistics ****************//
+
+    private void add(Result result) {
+        played++;
+        if (result.score == 2)
+            wins++;
+        else if (result.score == 1)
+            draws++;
+        else
+            losses++;
+        if (result.illegalMove)
+            illegalMoves++;
+        latencies1.addAll(result.times1);
+        latencies2.addAll(result.times2);
+    }
+
+    // Mean score per game of ai1, 1 for a win and 0.5 for a draw
+    private double meanScore() {
+        return (wins + 0.5 * draws) / played;
+    }
+
+    // Variance of the score of one game
+    private double scoreVariance() {
+        double mean = meanScore();
+        return (wins * (1 - mean) * (1 - mean) + draws * (0.5 - mean) * (0.5 - mean) + losses * mean * mean) / played;
+    }
+
+    private static double elo(double score) {
+        return -400 * Math.log10(1 / score - 1);
+    }
+
+    private static double expectedScore(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    /**
+     * The log-likelihood ratio of elo1 against elo0, using a normal approximation of the mean score.
+     */
+    private double logLikelihoodRatio() {
+        double variance = scoreVariance();
+        if (variance == 0)
+            return 0;
+        double s0 = expectedScore(elo0);
+        double s1 = expectedScore(elo1);
+        return played * (s1 - s0) * (2 * meanScore() - s0 - s1) / (2 * variance);
+    }
+
+    // 1 if the SPRT accepts elo1, -1 if it accepts elo0 and 0 if it has not decided yet
+    private int sprtDecision() {
+        double llr = logLikelihoodRatio();
+        if (llr >= Math.log((1 - SPRT_BETA) / SPRT_ALPHA))
+            return 1;
+        if (llr <= Math.log(SPRT_BETA / (1 - SPRT_ALPHA)))
+            return -1;
+        return 0;
+    }
+
+    private String summary() {
+        return String.format("+%d =%d -%d, score %.1f%%, Elo %s", wins, draws, losses, 100 * meanScore(), eloText());
+    }
+
+    // Elo difference with the 95% confidence interval
+    private String eloText() {
+        double mean = meanScore();
+        double error = 1.96 * Math.sqrt(scoreVariance() / played);
+        if (mean - error <= 0 || mean + error >= 1) // The interval is unbounded on one side
+            return String.format("%.0f (%s to %s)", elo(mean), eloBound(mean - error), eloBound(mean + error));
+        double low = elo(mean - error);
+        double high = elo(mean + error);
+        return String.format("%.1f +- %.1f (%.0f to %.0f)", elo(mean), (high - low) / 2, low, high);
+    }
+
+    private static String eloBound(double score) {
+        return score <= 0 ? "-inf" : score >= 1 ? "+inf" : String.format("%.0f", elo(score));
+    }
+
+    private void report(PrintStream out) {
+        out.println();
+        out.println(ai1 + " vs " + ai2 + ", " + size + "x" + size + ", " + played + " games");
+        out.println(summary());
+        if (illegalMoves > 0)
+            out.println("Games forfeited by an illegal move: " + illegalMoves);
+        if (sprt) {
+            int decision = sprtDecision();
+            out.printf("SPRT elo0=%.1f elo1=%.1f: LLR %.2f (%.2f, %.2f), %s%n", elo0, elo1, logLikelihoodRatio(),
+                    Math.log(SPRT_BETA / (1 - SPRT_ALPHA)), Math.log((1 - SPRT_BETA) / SPRT_ALPHA),
+                    decision > 0 ? "H1 accepted" : decision < 0 ? "H0 accepted" : "no decision");
+        }
+        out.println("Time per move (ms)\tp50\tp90\tp99\tmax\tmoves");
+        out.println(ai1 + "\t" + latencies1.percentiles());
+        out.println(ai2 + "\t" + latencies2.percentiles());
+    }
+
+    /**
+     * Times of moves in nanoseconds.
+     */
+    private static class Latencies {
+        private long[] times = new long[64];
+        private int count;
+
+        void add(long time) {
+            if (count == times.length)
+                times = Arrays.copyOf(times, 2 * count);
+            times[count++] = time;
+        }
+
+        void addAll(Latencies other) {
+            for (int i = 0; i < other.count; i++)
+                add(other.times[i]);
+        }
+
+        String percentiles() {
+            if (count == 0)
+                return "-";
+            long[] sorted = Arrays.copyOf(times, count);
+            Arrays.sort(sorted);
+            return String.format("%.1f\t%.1f\t%.1f\t%.1f\t%d", percentile(sorted, 0.5), percentile(sorted, 0.9),
+                    percentile(sorted, 0.99), sorted[count - 1] / 1e6, count);
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            return sorted[(int) Math.ceil(p * sorted.length) - 1] / 1e6;
+        }
+    }
+
+    //************ Openings ****************//
+
+    /**
+     * Returns the given number of openings of random legal moves from the start position.
+     */
+    static ArrayList<GameState> randomOpenings(int size, int plies, int count, long seed) {
+        Random random = new Random(seed);
+        ArrayList<GameState> openings = new ArrayList<>();
+        while (openings.size() < count) {
+            GameState s = new GameState(size, 1);
+            for (int i = 0; i < plies && !s.isFinished(); i++) {
+                ArrayList<Position> moves = s.legalMoves();
+                if (moves.isEmpty())
+                    s.changePlayer();
+                else
+                    s.insertToken(moves.get(random.nextInt(moves.size())));
+            }
+            if (!s.isFinished())
+                openings.add(s);
+        }
+        return openings;
+    }
+
+    /**
+     * Reads openings from a file with one opening per line, written as moves like "c4 e3 f6", where the letter
+     * is the column and the number is the row counted from 1. Empty lines and lines starting with # are skipped.
+     */
+    static ArrayList<GameState> readOpenings(String file, int size) throws IOException {
+        ArrayList<GameState> openings = new ArrayList<>();
+        List<String> lines = Files.readAllLines(Paths.get(file));
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            try {
+                openings.add(playMoves(line, size));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage() + " in opening: " + line);
+            }
+        }
+        if (openings.isEmpty())
+            throw new IOException("No openings in " + file);
+        return openings;
+    }
+
+    /**
+     * Returns the state after playing the given moves, like "c4 e3 f6", from the start position. A player
+     * without legal moves passes.
+     * @throws IllegalArgumentException if a move cannot be parsed or is illegal
+     */
+    static GameState playMoves(String moves, int size) {
+        GameState s = new GameState(size, 1);
+        for (String move : moves.trim().split("\\s+")) {
+            if (move.isEmpty())
+                continue;
+            if (s.legalMoves().isEmpty())
+                s.changePlayer();
+            Position p;
+            try {
+                p = new Position(Character.toLowerCase(move.charAt(0)) - 'a', Integer.parseInt(move.substring(1)) - 1);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Cannot parse move " + move);
+            }
+            if (p.col < 0 || p.col >= size || p.row < 0 || p.row >= size || !s.insertToken(p))
+                throw new IllegalArgumentException("Illegal move " + move);
+        }
+        return s;
+    }
+
+    //************ Command line ****************//
+
+    /**
+     * Usage: java Tournament ai1 ai2 [games] [-size n] [-threads n] [-plies n] [-openings file] [-seed n]
+     * [-sprt elo0 elo1]
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            printHelp("You need to supply at least two arguments");
+            System.exit(1);
+        }
+        int games = 100;
+        int size = 8;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int plies = 4;
+        long seed = 1;
+        String openingsFile = null;
+        double elo0 = Double.NaN;
+        double elo1 = Double.NaN;
+        try {
+            int i = 2;
+            if (i < args.length && !args[i].startsWith("-"))
+                games = Integer.parseInt(args[i++]);
+            for (; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-size": size = Integer.parseInt(args[++i]); break;
+                    case "-threads": threads = Integer.parseInt(args[++i]); break;
+                    case "-plies": plies = Integer.parseInt(args[++i]); break;
+                    case "-seed": seed = Long.parseLong(args[++i]); break;
+                    case "-openings": openingsFile = args[++i]; break;
+                    case "-sprt":
+                        elo0 = Double.parseDouble(args[++i]);
+                        elo1 = Double.parseDouble(args[++i]);
+                        break;
+                    default:
+                        printHelp("Unknown option: " + args[i]);
+                        System.exit(1);
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            printHelp("Could not parse the options: " + e.getMessage());
+            System.exit(1);
+        }
+        if (size < 4 || size % 2 != 0) {
+            printHelp("Board size should be an even number greater than 2");
+            System.exit(1);
+        }
+
+        try {
+            newAI(args[0]);
+            newAI(args[1]);
+        } catch (IllegalArgumentException e) {
+            printHelp(e.getMessage());
+            System.exit(1);
+        }
+
+        ArrayList<GameState> openings = openingsFile != null
+                ? readOpenings(openingsFile, size)
+                : randomOpenings(size, plies, (games + 1) / 2, seed);
+        Tournament tournament = new Tournament(args[0], args[1], size, openings, games, threads, elo0, elo1);
+
+        // The AIs print details of their search for every move
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            tournament.run(out);
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    public static void printHelp(String errMsg) {
+        if (!errMsg.equals(""))
+            System.err.println(errMsg);
+        System.err.println("Usage: java Tournament ai1 ai2 [games] [options]");
+        System.err.println("\tai1, ai2\t - OthelloAI classes implementing IOthelloAI. Results are given for ai1.");
+        System.err.println("\tgames\t\t - The number of games, played in pairs with colours reversed. Defaults to 100.");
+        System.err.println("\t-size n\t\t - The size of the board. Defaults to 8.");
+        System.err.println("\t-threads n\t - The number of games played at the same time. Defaults to the number of cores.");
+        System.err.println("\t-plies n\t - The number of random moves of each opening. Defaults to 4.");
+        System.err.println("\t-openings file\t - Openings to play instead of random ones, one line of moves like \"c4 e3\" each.");
+        System.err.println("\t-seed n\t\t - Seed of the random openings. Defaults to 1.");
+        System.err.println("\t-sprt elo0 elo1\t - Stop when an SPRT accepts one of the two Elo differences.");
+    }
+}
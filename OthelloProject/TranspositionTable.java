@@ -0,0 +1,106 @@
+import java.util.Arrays;
+
+/**
+ * Fixed-size hash table from game states, identified by their Zobrist hash, to search results: the best move,
+ * the depth searched and the value with the kind of bound it is. When two states share a slot, the deeper
+ * result is kept, but a result from a newer search always replaces an older one.
+ *
+ * Each slot holds two longs, the key stored xor'ed with the data, so that a slot read while another thread
+ * writes it fails the key check and counts as a miss. The table can therefore be shared by threads without locks.
+ */
+public class TranspositionTable {
+    public static final int EXACT = 0;  // The value is the exact minimax value
+    public static final int LOWER = 1;  // The search failed high, the true value is at least the value
+    public static final int UPPER = 2;  // The search failed low, the true value is at most the value
+
+    private final long[] table;
+    private final int mask;
+    private int generation;             // Incremented for each move, so stale entries can be replaced
+
+    /**
+     * @param log2Slots The table has 2^log2Slots slots of 16 bytes each
+     */
+    public TranspositionTable(int log2Slots) {
+        table = new long[2 << log2Slots];
+        mask = (1 << log2Slots) - 1;
+    }
+
+    /**
+     * Marks the results stored from now on as newer than the ones already in the table.
+     */
+    public void newSearch() {
+        generation = (generation + 1) & 0x3F;
+    }
+
+    /**
+     * Stores a search result.
+     * @param hash The hash of the state
+     * @param move The best move as col*size+row, or -1 if there is none
+     * @param depth The depth searched below the state
+     * @param value The value found by the search
+     * @param bound EXACT, LOWER or UPPER
+     */
+    public void store(long hash, int move, int depth, int value, int bound) {
+        int i = 2 * ((int) hash & mask);
+        long old = table[i + 1];
+        if (old != 0 && (table[i] ^ old) == hash) {
+            if (move < 0)
+                move = move(old);
+        } else if (old != 0 && generation(old) == generation && depth(old) > depth) {
+            return;
+        }
+        long data = pack(move, depth, value, bound, generation);
+        table[i] = hash ^ data;
+        table[i + 1] = data;
+    }
+
+    /**
+     * Returns the data stored for the state with the given hash, or 0 if there is none.
+     * The fields are read with move, depth, value and bound.
+     */
+    public long probe(long hash) {
+        int i = 2 * ((int) hash & mask);
+        long data = table[i + 1];
+        if (data == 0 || (table[i] ^ data) != hash)
+            return 0;
+        return data;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        Arrays.fill(table, 0);
+    }
+
+    // Layout of the data: value in bits 0-31, move+1 in bits 32-47, depth in bits 48-54, bit 55 set
+    // so that a used slot is never 0, generation in bits 56-61 and bound in bits 62-63. PositionStore uses
+    // the same layout.
+    static long pack(int move, int depth, int value, int bound, int generation) {
+        return (value & 0xFFFFFFFFL)
+                | ((long) (move + 1) & 0xFFFF) << 32
+                | ((long) (depth & 0x7F) | 0x80) << 48
+                | ((long) generation) << 56
+                | ((long) bound) << 62;
+    }
+
+    public static int move(long data) {
+        return (int) ((data >>> 32) & 0xFFFF) - 1;
+    }
+
+    public static int depth(long data) {
+        return (int) ((data >>> 48) & 0x7F);
+    }
+
+    public static int value(long data) {
+        return (int) data;
+    }
+
+    public static int bound(long data) {
+        return (int) (data >>> 62);
+    }
+
+    static int generation(long data) {
+        return (int) ((data >>> 56) & 0x3F);
+    }
+}
@@ -0,0 +1,571 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fits the evaluation to the results of recorded games (see GameFile and SelfPlay), by logistic regression as in
+ * Texel's tuning method: the evaluation of a position, scaled, is taken as the log odds of black winning the game,
+ * and the weights are moved to make the actual results more likely. With -target discs the evaluation is fitted
+ * to the final disc difference instead, by least squares.
+ *
+ * Two evaluations can be tuned:
+ * - grid: the weights of the places of the board for each phase (see WeightTables), for the size of the games.
+ *   Places that map onto each other by a rotation or reflection of the board share their weight.
+ * - patterns: the tables of PatternEval, for 8x8 games. A pattern with the colours swapped gets the opposite score.
+ *
+ * Both are linear in their weights: a position has a list of features, each a weight and a sign, and its
+ * evaluation is the sum of the signed weights. The games are read from the file once per epoch and never held in
+ * memory. Their positions are collected in batches; the gradient of a batch is computed by all threads, each over
+ * a part of the batch, and the weights are updated with Adam. Only the weights of features seen in the batch are
+ * updated, as most pattern entries are rare. Every tenth game is held out to measure the loss on unseen games.
+ */
+public class Tuner {
+    private static final double BETA1 = 0.9;
+    private static final double BETA2 = 0.999;
+    private static final double EPSILON = 1e-8;
+    private static final int HOLD_OUT = 10;         // Every HOLD_OUT'th game is held out
+
+    private final Model model;
+    private final boolean discs;                    // Fit to the disc difference rather than the result
+    private final int threads;
+    private final ExecutorService pool;
+    private final double rate;
+
+    private final float[] weights;
+    private final float[] moment;                   // Adam's moving averages of the gradient
+    private final float[] squares;                  // and of its square
+    private final int[] lastStep;                   // The last step each weight was updated in
+    private int step;
+    private final float[][] gradients;              // One per thread
+    private final int batchSize;
+
+    /**
+     * @param model The evaluation to tune
+     * @param discs Whether to fit to the disc difference rather than the result
+     * @param rate The learning rate, the largest step of a weight per batch in its units
+     */
+    Tuner(Model model, boolean discs, int threads, int batchSize, double rate) {
+        this.model = model;
+        this.discs = discs;
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.rate = rate;
+        pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "Tuner");
+            t.setDaemon(true);
+            return t;
+        });
+        int parameters = model.parameters();
+        weights = new float[parameters];
+        moment = new float[parameters];
+        squares = new float[parameters];
+        lastStep = new int[parameters];
+        gradients = new float[threads][parameters];
+        model.initialize(weights);
+    }
+
+    /**
+     * Tunes the weights over the games of the file for the given number of epochs, printing the losses after each.
+     */
+    void tune(String file, int epochs) throws IOException {
+        Batch training = new Batch(true);
+        Batch heldOut = new Batch(false);
+        for (int epoch = 1; epoch <= epochs; epoch++) {
+            long start = System.nanoTime();
+            training.clear();
+            heldOut.clear();
+            long positions = 0;
+            GameFile.Game game = new GameFile.Game();
+            try (GameFile.Reader reader = new GameFile.Reader(file)) {
+                model.checkSize(reader.getSize());
+                for (long g = 0; reader.next(game); g++) {
+                    Batch batch = g % HOLD_OUT == HOLD_OUT - 1 ? heldOut : training;
+                    GameState s = new GameState(game.getSize(), 1);
+                    for (int i = 0; i < game.getMoveCount(); i++) {
+                        if (s.legalMoves().isEmpty())
+                            s.changePlayer();
+                        if (i >= game.getOpeningMoves()) {
+                            batch.add(s, game.getResult());
+                            positions++;
+                        }
+                        int move = game.getMove(i);
+                        s.insertToken(new Position(move / game.getSize(), move % game.getSize()));
+                    }
+                }
+            }
+            training.flush();
+            heldOut.flush();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Epoch %d: loss %.5f, held out %.5f, %d positions, %.1f seconds, %.0f per second%n",
+                    epoch, training.meanLoss(), heldOut.meanLoss(), positions, seconds, positions / seconds);
+        }
+    }
+
+    /**
+     * Positions collected until there are enough to compute, and the loss of those computed. The features of
+     * position i are features[starts[i] ... starts[i+1]-1].
+     */
+    private class Batch {
+        private final boolean train;        // Whether the weights are updated from the batch
+        private int[] features = new int[1 << 16];
+        private byte[] signs = new byte[1 << 16];
+        private final int[] starts = new int[batchSize + 1];
+        private final int[] results = new int[batchSize];   // Tokens of black minus those of white at the end
+        private int count;
+        private double loss;
+        private long positions;
+
+        Batch(boolean train) {
+            this.train = train;
+        }
+
+        void clear() {
+            count = 0;
+            loss = 0;
+            positions = 0;
+        }
+
+        void add(GameState s, int result) {
+            int start = starts[count];
+            if (features.length < start + model.maxFeatures()) {
+                features = Arrays.copyOf(features, 2 * (start + model.maxFeatures()));
+                signs = Arrays.copyOf(signs, features.length);
+            }
+            starts[count + 1] = start + model.features(s, features, signs, start);
+            results[count++] = result;
+            if (count == batchSize)
+                flush();
+        }
+
+        void flush() {
+            if (count == 0)
+                return;
+            loss += compute(this);
+            positions += count;
+            count = 0;
+        }
+
+        double meanLoss() {
+            return positions == 0 ? Double.NaN : loss / positions;
+        }
+    }
+
+    /**
+     * Computes the loss of the positions of the batch, and for a training batch the gradient, with which the
+     * weights are then updated. Returns the sum of the losses.
+     */
+    private double compute(Batch batch) {
+        int n = batch.count;
+        int chunk = (n + threads - 1) / threads;
+        ArrayList<Future<Double>> parts = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            float[] gradient = batch.train ? gradients[t] : null;
+            int from = Math.min(n, t * chunk);
+            int to = Math.min(n, from + chunk);
+            parts.add(pool.submit(() -> computePart(batch, from, to, gradient)));
+        }
+        double loss = 0;
+        for (Future<Double> part : parts)
+            loss += get(part);
+        if (!batch.train)
+            return loss;
+
+        step++;
+        int parameters = weights.length;
+        int share = (parameters + threads - 1) / threads;
+        ArrayList<Future<Double>> updates = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int from = Math.min(parameters, t * share);
+            int to = Math.min(parameters, from + share);
+            updates.add(pool.submit(() -> {
+                update(from, to, n);
+                return 0.0;
+            }));
+        }
+        for (Future<Double> update : updates)
+            get(update);
+        return loss;
+    }
+
+    private double computePart(Batch batch, int from, int to, float[] gradient) {
+        int[] features = batch.features;
+        byte[] signs = batch.signs;
+        int[] starts = batch.starts;
+        double logistic = model.logisticScale();
+        double unitsPerDisc = model.unitsPerDisc();
+        double loss = 0;
+        for (int p = from; p < to; p++) {
+            double eval = 0;
+            for (int i = starts[p]; i < starts[p + 1]; i++)
+                eval += signs[i] * weights[features[i]];
+            int result = batch.results[p];
+            double slope;       // The derivative of the loss by the evaluation
+            if (discs) {
+                double error = eval / unitsPerDisc - result;
+                loss += error * error;
+                slope = 2 * error / unitsPerDisc;
+            } else {
+                double target = result > 0 ? 1 : result == 0 ? 0.5 : 0;
+                double chance = 1 / (1 + Math.exp(-logistic * eval));
+                chance = Math.min(1 - 1e-12, Math.max(1e-12, chance));
+                loss -= target * Math.log(chance) + (1 - target) * Math.log(1 - chance);
+                slope = (chance - target) * logistic;
+            }
+            if (gradient != null) {
+                for (int i = starts[p]; i < starts[p + 1]; i++)
+                    gradient[features[i]] += (float) (slope * signs[i]);
+            }
+        }
+        return loss;
+    }
+
+    // Adam update of the weights from up to to, with the gradients of the threads summed and cleared
+    private void update(int from, int to, int n) {
+        double correction1 = 1 - Math.pow(BETA1, step);
+        double correction2 = 1 - Math.pow(BETA2, step);
+        for (int p = from; p < to; p++) {
+            double gradient = 0;
+            for (float[] g : gradients) {
+                gradient += g[p];
+                g[p] = 0;
+            }
+            if (gradient == 0)
+                continue;
+            gradient /= n;
+            // The averages decay over the steps the weight was not seen in, as if its gradient had been 0
+            int skipped = step - lastStep[p] - 1;
+            double m = moment[p] * (skipped > 0 ? Math.pow(BETA1, skipped) : 1);
+            double v = squares[p] * (skipped > 0 ? Math.pow(BETA2, skipped) : 1);
+            m = BETA1 * m + (1 - BETA1) * gradient;
+            v = BETA2 * v + (1 - BETA2) * gradient * gradient;
+            moment[p] = (float) m;
+            squares[p] = (float) v;
+            lastStep[p] = step;
+            weights[p] -= (float) (rate * (m / correction1) / (Math.sqrt(v / correction2) + EPSILON));
+        }
+    }
+
+    private static double get(Future<Double> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Tuner thread failed", e);
+        }
+    }
+
+    //************ Models ****************//
+
+    /**
+     * A linear evaluation: its weights and the features of a position.
+     */
+    abstract static class Model {
+        abstract int parameters();
+
+        abstract int maxFeatures();
+
+        /**
+         * Puts the weights (index) and signs of the features of the position from the given offset, and returns
+         * their number.
+         */
+        abstract int features(GameState s, int[] index, byte[] sign, int offset);
+
+        /**
+         * Returns the log odds of black winning per unit of the evaluation.
+         */
+        abstract double logisticScale();
+
+        abstract double unitsPerDisc();
+
+        /**
+         * Sets the weights to start the tuning from.
+         */
+        void initialize(float[] weights) {
+        }
+
+        /**
+         * Checks that the model can evaluate games of the given board size.
+         * @throws IOException if it cannot
+         */
+        abstract void checkSize(int size) throws IOException;
+
+        abstract void save(float[] weights, String file) throws IOException;
+    }
+
+    /**
+     * The weights of the places for each phase. The weights are in the units of the engines' weighted score.
+     */
+    static class GridModel extends Model {
+        private static final double LOGISTIC_SCALE = 1 / 16.0;
+        private static final double UNITS_PER_DISC = 4;
+
+        private final int size;
+        private final int[] classOf;        // The class of places of each place col*size+row
+        private final int classes;
+
+        GridModel(int size) {
+            this.size = size;
+            classOf = new int[size * size];
+            int[] classOfCanonical = new int[size * size];
+            Arrays.fill(classOfCanonical, -1);
+            int count = 0;
+            for (int col = 0; col < size; col++) {
+                for (int row = 0; row < size; row++) {
+                    int canonical = canonicalPlace(col, row);
+                    if (classOfCanonical[canonical] < 0)
+                        classOfCanonical[canonical] = count++;
+                    classOf[col * size + row] = classOfCanonical[canonical];
+                }
+            }
+            classes = count;
+        }
+
+        // The smallest place col*size+row among the rotations and reflections of the place
+        private int canonicalPlace(int col, int row) {
+            int best = Integer.MAX_VALUE;
+            for (int symmetry = 0; symmetry < 8; symmetry++) {
+                int c = (symmetry & 1) != 0 ? size - 1 - col : col;
+                int r = (symmetry & 2) != 0 ? size - 1 - row : row;
+                if ((symmetry & 4) != 0) {
+                    int t = c;
+                    c = r;
+                    r = t;
+                }
+                best = Math.min(best, c * size + r);
+            }
+            return best;
+        }
+
+        int parameters() {
+            return WeightTables.PHASES * classes;
+        }
+
+        int maxFeatures() {
+            return size * size;
+        }
+
+        int features(GameState s, int[] index, byte[] sign, int offset) {
+            int[][] board = s.getBoard();
+            int base = WeightTables.phase(size, s.countEmpty()) * classes;
+            int count = 0;
+            for (int col = 0; col < size; col++) {
+                for (int row = 0; row < size; row++) {
+                    int v = board[col][row];
+                    if (v == 0)
+                        continue;
+                    index[offset + count] = base + classOf[col * size + row];
+                    sign[offset + count++] = (byte) (v == 1 ? 1 : -1);
+                }
+            }
+            return count;
+        }
+
+        double logisticScale() {
+            return LOGISTIC_SCALE;
+        }
+
+        double unitsPerDisc() {
+            return UNITS_PER_DISC;
+        }
+
+        void checkSize(int size) throws IOException {
+            if (size != this.size)
+                throw new IOException("The games are " + size + "x" + size + ", not " + this.size + "x" + this.size);
+        }
+
+        // The tables of the other sizes in the file are kept
+        void save(float[] weights, String file) throws IOException {
+            WeightTables weightTables = Files.exists(Paths.get(file)) ? WeightTables.load(file) : new WeightTables();
+            int[][][] tables = new int[WeightTables.PHASES][size][size];
+            for (int phase = 0; phase < WeightTables.PHASES; phase++) {
+                for (int place = 0; place < size * size; place++)
+                    tables[phase][place / size][place % size] = (int) Math.rint(weights[phase * classes + classOf[place]]);
+            }
+            weightTables.set(size, tables);
+            weightTables.save(file);
+        }
+    }
+
+    /**
+     * The tables of PatternEval. The weights are in 1/PatternEval.SCALE discs, as the tables.
+     */
+    static class PatternModel extends Model {
+        private static final double LOGISTIC_SCALE = 1.0 / (4 * PatternEval.SCALE);   // 4 discs per unit of log odds
+
+        private final int[] offsets;        // [phase * PATTERN_COUNT + pattern], the weight of index 0
+        private final int[][] swapped;      // [pattern][index], the index with the colours swapped
+        private final int parameters;
+
+        PatternModel() {
+            PatternEval eval = PatternEval.heuristic();
+            offsets = new int[PatternEval.PHASES * PatternEval.PATTERN_COUNT];
+            swapped = new int[PatternEval.PATTERN_COUNT][];
+            int total = 0;
+            for (int phase = 0; phase < PatternEval.PHASES; phase++) {
+                for (int pattern = 0; pattern < PatternEval.PATTERN_COUNT; pattern++) {
+                    offsets[phase * PatternEval.PATTERN_COUNT + pattern] = total;
+                    total += eval.table(phase, pattern).length;
+                }
+            }
+            parameters = total;
+            for (int pattern = 0; pattern < PatternEval.PATTERN_COUNT; pattern++) {
+                int length = eval.table(0, pattern).length;
+                swapped[pattern] = new int[length];
+                for (int index = 0; index < length; index++) {
+                    int swap = 0;
+                    for (int i = index, power = 1; power < length; i /= 3, power *= 3)
+                        swap += (i % 3 == 0 ? 0 : 3 - i % 3) * power;
+                    swapped[pattern][index] = swap;
+                }
+            }
+        }
+
+        int parameters() {
+            return parameters;
+        }
+
+        int maxFeatures() {
+            return PatternEval.INSTANCES.length;
+        }
+
+        // An index and its colour swap share one weight, kept at the smaller index
+        int features(GameState s, int[] index, byte[] sign, int offset) {
+            boolean blackInTurn = s.getPlayerInTurn() == 1;
+            long black = blackInTurn ? s.own() : s.opponent();
+            long white = blackInTurn ? s.opponent() : s.own();
+            int phaseBase = PatternEval.phase(Long.bitCount(~(black | white))) * PatternEval.PATTERN_COUNT;
+            int count = 0;
+            for (int i = 0; i < PatternEval.INSTANCES.length; i++) {
+                int pattern = PatternEval.INSTANCE_PATTERN[i];
+                int k = PatternEval.index(black, white, PatternEval.INSTANCES[i]);
+                int swap = swapped[pattern][k];
+                if (k == swap)
+                    continue;       // Scores 0
+                index[offset + count] = offsets[phaseBase + pattern] + Math.min(k, swap);
+                sign[offset + count++] = (byte) (k < swap ? 1 : -1);
+            }
+            return count;
+        }
+
+        double logisticScale() {
+            return LOGISTIC_SCALE;
+        }
+
+        double unitsPerDisc() {
+            return PatternEval.SCALE;
+        }
+
+        void checkSize(int size) throws IOException {
+            if (size != BitBoard.SIZE)
+                throw new IOException("Patterns are for 8x8 games, the games are " + size + "x" + size);
+        }
+
+        // Starts from the tables in use, made symmetric in the colours
+        void initialize(float[] weights) {
+            PatternEval eval = PatternEval.getDefault();
+            for (int phase = 0; phase < PatternEval.PHASES; phase++) {
+                for (int pattern = 0; pattern < PatternEval.PATTERN_COUNT; pattern++) {
+                    short[] table = eval.table(phase, pattern);
+                    int offset = offsets[phase * PatternEval.PATTERN_COUNT + pattern];
+                    for (int index = 0; index < table.length; index++) {
+                        int swap = swapped[pattern][index];
+                        if (index < swap)
+                            weights[offset + index] = (table[index] - table[swap]) / 2f;
+                    }
+                }
+            }
+        }
+
+        void save(float[] weights, String file) throws IOException {
+            PatternEval eval = PatternEval.heuristic();
+            for (int phase = 0; phase < PatternEval.PHASES; phase++) {
+                for (int pattern = 0; pattern < PatternEval.PATTERN_COUNT; pattern++) {
+                    short[] table = eval.table(phase, pattern);
+                    int offset = offsets[phase * PatternEval.PATTERN_COUNT + pattern];
+                    for (int index = 0; index < table.length; index++) {
+                        int swap = swapped[pattern][index];
+                        double score = index == swap ? 0
+                                : index < swap ? weights[offset + index] : -weights[offset + swap];
+                        table[index] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.rint(score)));
+                    }
+                }
+            }
+            eval.save(file);
+        }
+    }
+
+    //************ Command line ****************//
+
+    /**
+     * Usage: java Tuner grid|patterns games [-epochs n] [-threads n] [-batch n] [-rate r] [-target result|discs]
+     * [-out file]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !args[0].equals("grid") && !args[0].equals("patterns")) {
+            printHelp("You need to supply the evaluation and a game file");
+            System.exit(1);
+        }
+        boolean grid = args[0].equals("grid");
+        int epochs = 5;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int batch = 16384;
+        double rate = grid ? 0.5 : 1;
+        boolean discs = !grid;
+        String out = grid ? WeightTables.DEFAULT_FILE : PatternEval.DEFAULT_FILE;
+        try {
+            for (int i = 2; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-epochs": epochs = Integer.parseInt(args[++i]); break;
+                    case "-threads": threads = Integer.parseInt(args[++i]); break;
+                    case "-batch": batch = Integer.parseInt(args[++i]); break;
+                    case "-rate": rate = Double.parseDouble(args[++i]); break;
+                    case "-out": out = args[++i]; break;
+                    case "-target":
+                        String target = args[++i];
+                        if (!target.equals("result") && !target.equals("discs"))
+                            throw new IllegalArgumentException("Unknown target: " + target);
+                        discs = target.equals("discs");
+                        break;
+                    default:
+                        printHelp("Unknown option: " + args[i]);
+                        System.exit(1);
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            printHelp("Could not parse the options: " + e.getMessage());
+            System.exit(1);
+        }
+
+        int size;
+        try (GameFile.Reader reader = new GameFile.Reader(args[1])) {
+            size = reader.getSize();
+        }
+        Model model = grid ? new GridModel(size) : new PatternModel();
+        Tuner tuner = new Tuner(model, discs, threads, batch, rate);
+        tuner.tune(args[1], epochs);
+        model.save(tuner.weights, out);
+        System.out.println("Written " + out);
+    }
+
+    public static void printHelp(String errMsg) {
+        if (!errMsg.equals(""))
+            System.err.println(errMsg);
+        System.err.println("Usage: java Tuner grid|patterns games [options]");
+        System.err.println("\tgrid\t\t - Tune the weights of the places for the size of the games, see WeightTables.");
+        System.err.println("\tpatterns\t - Tune the tables of PatternEval on 8x8 games.");
+        System.err.println("\tgames\t\t - A game file, see GameFile and SelfPlay.");
+        System.err.println("\t-epochs n\t - The number of passes over the games. Defaults to 5.");
+        System.err.println("\t-threads n\t - The number of threads computing the gradient. Defaults to the number of cores.");
+        System.err.println("\t-batch n\t - The number of positions per update of the weights. Defaults to 16384.");
+        System.err.println("\t-rate r\t\t - The learning rate. Defaults to 0.5 for grid and 1 for patterns.");
+        System.err.println("\t-target t\t - Fit to the game result (result) or the disc difference (discs).");
+        System.err.println("\t\t\t   Defaults to result for grid and discs for patterns.");
+        System.err.println("\t-out file\t - The file to write. Defaults to " + WeightTables.DEFAULT_FILE + " or "
+                + PatternEval.DEFAULT_FILE + ".");
+    }
+}
@@ -0,0 +1,141 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tuned weights of the places of the board for the weighted score of the engines (see GameState.setWeights), for
+ * each board size and game phase. The engines use them instead of their hand made weights for the sizes the file
+ * has tables of. The tables are made by Tuner.
+ *
+ * The phase is the fraction of the places that are empty, in PHASES steps, so the phases of all board sizes cover
+ * the game alike. The file is a header (magic number and number of sizes), and for each size: the size, the number
+ * of phases and the weights as ints, phase by phase and column by column.
+ */
+public class WeightTables {
+    public static final String DEFAULT_FILE = "weights.eval";
+    public static final int PHASES = 8;
+
+    private static final int MAGIC = 0x57475431;     // "WGT1"
+
+    private static WeightTables defaultTables;
+
+    private final TreeMap<Integer, int[][][]> tables = new TreeMap<>();    // [phase][col][row] by size
+
+    /**
+     * Returns the tables of the default file, or no tables if there is no such file.
+     */
+    public static synchronized WeightTables getDefault() {
+        if (defaultTables == null) {
+            defaultTables = new WeightTables();
+            if (Files.exists(Paths.get(DEFAULT_FILE))) {
+                try {
+                    defaultTables = load(DEFAULT_FILE);
+                } catch (IOException e) {
+                    System.out.println("Could not read the weight tables: " + e.getMessage());
+                }
+            }
+        }
+        return defaultTables;
+    }
+
+    /**
+     * Returns the phase of a position with the given number of empty places.
+     */
+    public static int phase(int size, int empties) {
+        return Math.min(PHASES - 1, empties * PHASES / (size * size - 3));
+    }
+
+    /**
+     * Returns the weights for a position of the given size with the given number of empty places, or null if
+     * there are no tables for the size. The same array is returned for all positions of a phase, so it should not
+     * be changed.
+     */
+    public int[][] weights(int size, int empties) {
+        int[][][] sizeTables = tables.get(size);
+        return sizeTables == null ? null : sizeTables[phase(size, empties)];
+    }
+
+    /**
+     * Sets the tables of a size, indexed [phase][col][row].
+     */
+    public void set(int size, int[][][] sizeTables) {
+        if (sizeTables.length != PHASES || sizeTables[0].length != size)
+            throw new IllegalArgumentException("Tables should be " + PHASES + " phases of " + size + "x" + size);
+        tables.put(size, sizeTables);
+    }
+
+    /**
+     * Reads the tables from the given file.
+     * @throws IOException if the file cannot be read or is not a weight table file
+     */
+    public static WeightTables load(String file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a weight table file: " + file);
+            WeightTables weightTables = new WeightTables();
+            int sizes = in.readInt();
+            for (int i = 0; i < sizes; i++) {
+                int size = in.readInt();
+                if (in.readInt() != PHASES || size < 4 || size > 256)
+                    throw new IOException("Not a weight table file for " + PHASES + " phases: " + file);
+                int[][][] sizeTables = new int[PHASES][size][size];
+                for (int[][] phase : sizeTables) {
+                    for (int[] col : phase) {
+                        for (int row = 0; row < size; row++)
+                            col[row] = in.readInt();
+                    }
+                }
+                weightTables.tables.put(size, sizeTables);
+            }
+            return weightTables;
+        }
+    }
+
+    /**
+     * Writes the tables to the given file.
+     */
+    public void save(String file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(tables.size());
+            for (Map.Entry<Integer, int[][][]> entry : tables.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeInt(PHASES);
+                for (int[][] phase : entry.getValue()) {
+                    for (int[] col : phase) {
+                        for (int weight : col)
+                            out.writeInt(weight);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Prints the tables of a file.
+     * Usage: java WeightTables [file]
+     */
+    public static void main(String[] args) throws IOException {
+        WeightTables weightTables = load(args.length > 0 ? args[0] : DEFAULT_FILE);
+        for (Map.Entry<Integer, int[][][]> entry : weightTables.tables.entrySet()) {
+            int size = entry.getKey();
+            for (int phase = 0; phase < PHASES; phase++) {
+                System.out.println(size + "x" + size + ", phase " + phase);
+                for (int row = 0; row < size; row++) {
+                    StringBuilder line = new StringBuilder();
+                    for (int col = 0; col < size; col++)
+                        line.append(String.format("%5d", entry.getValue()[phase][col][row]));
+                    System.out.println(line);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+import java.util.Arrays;
+
+/**
+ * Bit-parallel move generation for boards other than 8x8, up to 64x64. A board is represented by one long[size]
+ * per player, with one word per column: bit row of word col is set if the player has a token on (col, row). As in
+ * BitBoard, scanning the words in order and their bits from low to high visits the board column by column.
+ *
+ * A step along a column shifts the bits of a word, and a step across columns moves to the next word, so a line of
+ * opponent tokens is followed in one pass over the words in the direction of the line. Only the columns from one
+ * before the first column with a token to one after the last are looked at, and the moves are taken from the
+ * frontier: the empty places next to an opponent token.
+ *
+ * An instance holds the scratch space of the move generation for one board size, so moves does not allocate. It
+ * should only be used by one thread; GameState keeps one per state, which copies of the state do not share.
+ */
+final class WideBitBoard {
+	static final int MAX_SIZE = 64;
+
+	private final int size;
+	private final long rows;			// The mask of the bits of the rows
+	private final long[] frontier;		// The frontier by column, as the targets of the lines
+	private final long[] line;			// The lines of one direction by column (see movesInDirection)
+
+	/**
+	 * @param size The size of the boards to generate moves for
+	 */
+	WideBitBoard(int size){
+		this.size = size;
+		rows = rows(size);
+		frontier = new long[size];
+		line = new long[size];
+	}
+
+	/**
+	 * Returns true if boards of the given size are represented this way by GameState.
+	 */
+	static boolean applies(int size){
+		return size != BitBoard.SIZE && size <= MAX_SIZE;
+	}
+
+	/**
+	 * Returns the mask of the bits of the rows of a board of the given size.
+	 */
+	static long rows(int size){
+		return size == 64 ? -1L : (1L << size) - 1;
+	}
+
+	/**
+	 * Puts the places where the player owning p can legally put a token into moves, and returns true if there are
+	 * any. With moves null, returns as soon as a move is found.
+	 * @param p The tokens of the player to move, a word per column
+	 * @param o The tokens of the opponent
+	 * @param moves Receives the moves, a word per column, or null
+	 */
+	boolean moves(long[] p, long[] o, long[] moves){
+		int first = 0;
+		while ( first < size && (p[first] | o[first]) == 0 )
+			first++;
+		if ( moves != null )
+			Arrays.fill(moves, 0);
+		if ( first == size )
+			return false;
+		int last = size - 1;
+		while ( (p[last] | o[last]) == 0 )
+			last--;
+		first = Math.max(0, first - 1);
+		last = Math.min(size - 1, last + 1);
+
+		// Only the columns of the window are written and read, so the scratch space is not cleared
+		boolean any = false;
+		for (int c = first; c <= last; c++){
+			long near = around(o, c, first, last);
+			near |= near << 1 | near >>> 1;
+			frontier[c] = near & ~(p[c] | o[c]) & rows;
+			any |= frontier[c] != 0;
+		}
+		if ( !any )
+			return false;
+
+		any = false;
+		for (int dc = -1; dc <= 1; dc++){
+			for (int dr = -1; dr <= 1; dr++){
+				if ( dc == 0 && dr == 0 )
+					continue;
+				any |= movesInDirection(p, o, moves, first, last, dc, dr);
+				if ( any && moves == null )
+					return true;
+			}
+		}
+		return any;
+	}
+
+	// The opponent tokens of column c and its neighbours in the window
+	private static long around(long[] o, int c, int first, int last){
+		long near = o[c];
+		if ( c > first )
+			near |= o[c - 1];
+		if ( c < last )
+			near |= o[c + 1];
+		return near;
+	}
+
+	/**
+	 * Adds the moves that turn a line of opponent tokens in the direction (dc, dr), and returns true if there are
+	 * any. line[c] gets the opponent tokens of column c from which steps of (dc, dr) over opponent tokens reach a
+	 * token of the player. It depends on line[c + dc], so the columns are visited against the direction.
+	 */
+	private boolean movesInDirection(long[] p, long[] o, long[] moves, int first, int last, int dc, int dr){
+		boolean any = false;
+		int start = dc > 0 ? last : first;
+		int end = dc > 0 ? first - 1 : last + 1;
+		int step = dc > 0 ? -1 : 1;
+		for (int c = start; c != end; c += step){
+			long reached;		// The places of column c one step before a line
+			if ( dc == 0 ){
+				// Along the column the line is followed within the word
+				long turned = shift(p[c], -dr) & o[c];
+				long grown;
+				while ( (grown = shift(turned, -dr) & o[c] & ~turned) != 0 )
+					turned |= grown;
+				reached = shift(turned, -dr);
+			}
+			else {
+				int next = c + dc;
+				boolean inside = next >= first && next <= last;
+				line[c] = inside ? shift(p[next] | line[next], -dr) & o[c] : 0;
+				reached = inside ? shift(line[next], -dr) : 0;
+			}
+			long found = reached & frontier[c];
+			if ( found != 0 ){
+				any = true;
+				if ( moves == null )
+					return true;
+				moves[c] |= found;
+			}
+		}
+		return any;
+	}
+
+	// Moves the bits of a column by dr rows, dropping those that leave the board
+	private long shift(long word, int dr){
+		return dr > 0 ? (word << 1) & rows : dr < 0 ? word >>> 1 : word;
+	}
+}
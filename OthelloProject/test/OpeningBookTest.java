@@ -0,0 +1,101 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks the moves of a small book against a plain minimax search from the view of the player in turn, for both
+ * colours, and that the symmetric images of a position get the same move.
+ */
+public class OpeningBookTest {
+    private static final int PLIES = 3;
+    private static final int DEPTH = 4;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void bookMovesAreBestForThePlayerInTurn() throws IOException {
+        String file = dir.resolve("test.book").toString();
+        OpeningBook.build(file, PLIES, DEPTH);
+        OpeningBook book = OpeningBook.open(file);
+
+        ArrayList<GameState> positions = new ArrayList<>();
+        collect(new GameState(BitBoard.SIZE, 1), PLIES, positions);
+        int[] checked = new int[3];
+        for (GameState s : positions) {
+            Position move = book.lookup(s);
+            assertNotNull(move, "No book move");
+            OthelloAIPrune ai = new OthelloAIPrune(0);
+            ai.definingWeights(s);
+            int best = Integer.MIN_VALUE;
+            for (Position p : s.legalMoves())
+                best = Math.max(best, -minimax(after(s, p), ai, DEPTH - 1));
+            assertEquals(best, -minimax(after(s, move), ai, DEPTH - 1),
+                    "Book move " + move + " is not best for player " + s.getPlayerInTurn());
+            checked[s.getPlayerInTurn()]++;
+        }
+        assertTrue(checked[1] > 0 && checked[2] > 0, "Both colours should be checked");
+    }
+
+    @Test
+    public void symmetricPositionsGetTheSameMove() {
+        ArrayList<GameState> positions = new ArrayList<>();
+        collect(new GameState(BitBoard.SIZE, 1), PLIES, positions);
+        for (GameState s : positions) {
+            long p = s.own();
+            long o = s.opponent();
+            int symmetry = OpeningBook.canonicalSymmetry(p, o);
+            for (int other = 0; other < 8; other++) {
+                long tp = OpeningBook.transform(p, other);
+                long to = OpeningBook.transform(o, other);
+                assertEquals(OpeningBook.transform(BitBoard.moves(p, o), other), BitBoard.moves(tp, to));
+                int otherSymmetry = OpeningBook.canonicalSymmetry(tp, to);
+                assertEquals(OpeningBook.transform(p, symmetry), OpeningBook.transform(tp, otherSymmetry));
+            }
+        }
+    }
+
+    // The value of the state for the player in turn, on the scale of OthelloAIPrune
+    private static int minimax(GameState s, OthelloAIPrune ai, int depth) {
+        if (s.isFinished()) {
+            int[] tokens = s.countTokens();
+            int difference = (tokens[0] - tokens[1]) * (1 << 16);
+            return s.getPlayerInTurn() == 1 ? difference : -difference;
+        }
+        if (depth == 0)
+            return s.getPlayerInTurn() == 1 ? ai.cutOffEval(s) : -ai.cutOffEval(s);
+        ArrayList<Position> moves = s.legalMoves();
+        if (moves.isEmpty()) {
+            GameState passed = new GameState(s);
+            passed.changePlayer();
+            return -minimax(passed, ai, depth - 1);
+        }
+        int best = Integer.MIN_VALUE;
+        for (Position p : moves)
+            best = Math.max(best, -minimax(after(s, p), ai, depth - 1));
+        return best;
+    }
+
+    private static GameState after(GameState s, Position p) {
+        GameState next = new GameState(s);
+        next.insertToken(p);
+        return next;
+    }
+
+    private static void collect(GameState s, int plies, ArrayList<GameState> positions) {
+        if (s.legalMoves().isEmpty())
+            return;
+        positions.add(s);
+        if (plies == 0)
+            return;
+        for (Position p : s.legalMoves())
+            collect(after(s, p), plies - 1, positions);
+    }
+}
@@ -0,0 +1,75 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * BoardKernel on the Java Vector API: each row of the board is added up in SIMD lanes, as many places at a time
+ * as the CPU has lanes, and the end of the row by the scalar code. A batch is added up board by board: adding up
+ * two boards at a time, to load the weights once for both, measured slower.
+ *
+ * The lanes add up v & 1 (1 for black) and v & 2 (2 for white) separately, times the weight, and the white sums
+ * are halved at the end, so no lane shifts are needed. The lanes are added up at the end of each row, since the
+ * JIT compiler of Java 17 keeps vectors in registers within a loop but boxed them across the nested loops.
+ *
+ * The class is in its own directory because it needs the incubator module to compile and to run (see BoardKernel),
+ * and BoardKernel.get() only loads it by name.
+ */
+public class VectorBoardKernel extends BoardKernel {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    public VectorBoardKernel() {
+    }
+
+    @Override
+    public int weightedSum(int[][] board, int[][] weights) {
+        int sum = 0;
+        for (int i = 0; i < board.length; i++)
+            sum += weightedSum(board[i], weights[i]);
+        return sum;
+    }
+
+    @Override
+    public int[] countTokens(int[][] board) {
+        int black = 0;
+        int white = 0;
+        for (int[] row : board) {
+            IntVector rowBlack = IntVector.zero(SPECIES);
+            IntVector rowWhite = IntVector.zero(SPECIES);
+            int j = 0;
+            for (int bound = SPECIES.loopBound(row.length); j < bound; j += SPECIES.length()) {
+                IntVector v = IntVector.fromArray(SPECIES, row, j);
+                rowBlack = rowBlack.add(v.and(1));
+                rowWhite = rowWhite.add(v.and(2));
+            }
+            black += rowBlack.reduceLanes(VectorOperators.ADD);
+            white += rowWhite.reduceLanes(VectorOperators.ADD) / 2;
+            for (; j < row.length; j++) {
+                black += row[j] & 1;
+                white += row[j] >> 1;
+            }
+        }
+        return new int[]{ black, white };
+    }
+
+    // The weighted sum of one row
+    private static int weightedSum(int[] row, int[] rowWeights) {
+        IntVector black = IntVector.zero(SPECIES);
+        IntVector white = IntVector.zero(SPECIES);
+        int j = 0;
+        for (int bound = SPECIES.loopBound(row.length); j < bound; j += SPECIES.length()) {
+            IntVector v = IntVector.fromArray(SPECIES, row, j);
+            IntVector w = IntVector.fromArray(SPECIES, rowWeights, j);
+            black = black.add(v.and(1).mul(w));
+            white = white.add(v.and(2).mul(w));
+        }
+        int sum = black.reduceLanes(VectorOperators.ADD) - white.reduceLanes(VectorOperators.ADD) / 2;
+        for (; j < row.length; j++)
+            sum += ((row[j] & 1) - (row[j] >> 1)) * rowWeights[j];
+        return sum;
+    }
+
+    @Override
+    public String name() {
+        return "vector (" + SPECIES.length() + " lanes)";
+    }
+}
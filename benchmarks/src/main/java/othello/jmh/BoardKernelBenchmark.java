@@ -0,0 +1,47 @@
+package othello.jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The loops over whole int[][] boards by board size (see BoardKernel). weightedSums adds up a batch of 8 boards
+ * in one operation. The scalar kernel is measured unless the vector kernel is compiled and its module added, e.g.
+ * with -jvmArgsAppend "--add-modules jdk.incubator.vector".
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BoardKernelBenchmark {
+    @Param({ "BoardKernel.weightedSum", "BoardKernel.countTokens", "BoardKernel.weightedSums" })
+    public String operation;
+
+    @Param({ "8", "16", "32", "64" })
+    public int size;
+
+    private LongSupplier op;
+
+    @Setup
+    public void setUp() {
+        op = Engine.operation(operation, size);
+    }
+
+    @Benchmark
+    public long run() {
+        return op.getAsLong();
+    }
+}
@@ -0,0 +1,24 @@
+package othello.jmh;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Access to the operations of the engine, whose classes are in the default package and cannot be named here.
+ */
+final class Engine {
+    private Engine() {
+    }
+
+    /**
+     * Returns the operation of the given name on positions of the given size (see Benchmark in the engine). Each
+     * call of getAsLong runs it once, on the next of a fixed set of positions.
+     */
+    static LongSupplier operation(String name, int size) {
+        try {
+            return (LongSupplier) Class.forName("Benchmark").getConstructor(String.class, int.class)
+                    .newInstance(name, size);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create the benchmark " + name, e);
+        }
+    }
+}
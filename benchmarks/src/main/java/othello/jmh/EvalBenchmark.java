@@ -0,0 +1,43 @@
+package othello.jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The evaluations of 8x8 positions: cutOffEval on states that keep the weighted score up to date, as in a search,
+ * and on states that do not, which scans the board, and the pattern evaluation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EvalBenchmark {
+    @Param({ "OthelloAIPrune.cutOffEval", "OthelloAIPrune.cutOffEvalScan", "PatternEval.evaluate" })
+    public String operation;
+
+    private LongSupplier op;
+
+    @Setup
+    public void setUp() {
+        op = Engine.operation(operation, 8);
+    }
+
+    @Benchmark
+    public long run() {
+        return op.getAsLong();
+    }
+}
@@ -0,0 +1,50 @@
+package othello.jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The GameState operations a search makes at every node, by board size: 8x8 bitboards and column bitboards
+ * above that (see WideBitBoard). The node operation makes a move, asks whether the game is finished and for the
+ * moves after it, and takes the move back. legalMoves and isFinished make a move and take it back first, so they
+ * find the moves of the position anew instead of reading those the state keeps, and their time includes that of
+ * makeUndoMove.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class GameStateBenchmark {
+    @Param({ "GameState.copy", "GameState.legalMoves", "GameState.insertToken", "GameState.makeUndoMove",
+            "GameState.isFinished", "GameState.node" })
+    public String operation;
+
+    @Param({ "8", "16", "32", "64" })
+    public int size;
+
+    private LongSupplier op;
+
+    @Setup
+    public void setUp() {
+        op = Engine.operation(operation, size);
+    }
+
+    @Benchmark
+    public long run() {
+        return op.getAsLong();
+    }
+}
@@ -0,0 +1,43 @@
+package othello.jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fixed depth searches of 8x8 midgame positions: OthelloAIPrune to depth 7 with its table cleared before each
+ * search, so no results are reused, and OthelloAI2 to depth 5. Also one random playout to the end of the game.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class SearchBenchmark {
+    @Param({ "OthelloAIPrune.search", "OthelloAI2.search", "Playouts.play" })
+    public String operation;
+
+    private LongSupplier op;
+
+    @Setup
+    public void setUp() {
+        op = Engine.operation(operation, 8);
+    }
+
+    @Benchmark
+    public long run() {
+        return op.getAsLong();
+    }
+}